@@ -26,6 +26,11 @@ public class LazyDataProviderView extends VerticalLayout {
 
         });
         add(itemsSelected);
+
+        MultiComboBox<Person> singleQueryCombobox = new MultiComboBox<>(1000);
+        singleQueryCombobox.setLabel("Persons (page and count in one query)");
+        singleQueryCombobox.setDataProviderWithCount(personService::fetchWithCount);
+        add(singleQueryCombobox);
     }
 
 }
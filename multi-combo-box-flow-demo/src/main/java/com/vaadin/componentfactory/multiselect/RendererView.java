@@ -5,6 +5,7 @@ import com.vaadin.componentfactory.multiselect.service.PersonService;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.dependency.Uses;
 import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.data.renderer.LitRenderer;
 import com.vaadin.flow.data.renderer.TemplateRenderer;
 import com.vaadin.flow.router.Route;
 
@@ -26,6 +27,15 @@ public class RendererView extends Div {
         combobox.setRenderer(TemplateRenderer.<Person>of("<vaadin-button>[[item.name]]</vaadin-button>")
             .withProperty("name", Person::getLastName));
         add(combobox);
+
+        MultiComboBox<Person> litCombobox = new MultiComboBox<>();
+        litCombobox.setLabel("Persons (LitRenderer)");
+        litCombobox.setItems(personList);
+        litCombobox.setRenderer(LitRenderer.<Person>of(
+                "<div><b>${item.lastName}</b><br><small>${item.firstName}</small></div>")
+            .withProperty("lastName", Person::getLastName)
+            .withProperty("firstName", Person::getFirstName));
+        add(litCombobox);
     }
 
     private List<Person> getItems() {
@@ -1,8 +1,10 @@
 package com.vaadin.componentfactory.multiselect.service;
 
+import com.vaadin.componentfactory.multiselect.MultiComboBox.ItemPage;
 import com.vaadin.componentfactory.multiselect.bean.Person;
 
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class PersonService {
@@ -15,6 +17,15 @@ public class PersonService {
             .skip(offset).limit(limit);
     }
 
+    public ItemPage<Person> fetchWithCount(String filter, int offset, int limit) {
+        List<Person> filtered = personData.getPersons().stream()
+            .filter(person -> filter == null || person.toString()
+                .toLowerCase().startsWith(filter.toLowerCase()))
+            .collect(Collectors.toList());
+        return new ItemPage<>(filtered.stream().skip(offset).limit(limit)
+            .collect(Collectors.toList()), filtered.size());
+    }
+
     public int count(String filter) {
         return (int) personData.getPersons().stream()
             .filter(person -> filter == null || person.toString()
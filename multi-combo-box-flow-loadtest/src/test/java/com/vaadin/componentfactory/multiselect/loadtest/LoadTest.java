@@ -0,0 +1,305 @@
+package com.vaadin.componentfactory.multiselect.loadtest;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox;
+import com.vaadin.componentfactory.multiselect.loadtest.SimulatedUser.Step;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Drives many concurrent sessions using a {@link MultiComboBox} in one JVM
+ * and reports how the server copes: the throughput of handled steps, the
+ * latency percentiles of each step, the monitor contention of the worker
+ * threads and the heap retained per session. The monitor contention only
+ * counts the blocks on {@code synchronized} monitors, not the waits on the
+ * session lock, which is a {@link java.util.concurrent.locks.ReentrantLock}.
+ * <p>
+ * Every session has its own UI and combo box, and is driven through a
+ * {@link com.vaadin.componentfactory.multiselect.ConnectorSimulator}. With
+ * virtual threads, available from Java 21, every session gets a thread of
+ * its own; with platform threads the sessions share a bounded pool, like the
+ * request threads of a servlet container. The heap per session is measured
+ * after the replay, once the sessions have loaded, filtered and selected
+ * items, without the recorded latencies. The options are given as
+ * {@code name=value} arguments:
+ * <ul>
+ * <li>{@code sessions}: the number of concurrent sessions, 1000 by
+ * default</li>
+ * <li>{@code provider}: {@code memory} for items set as a collection or
+ * {@code callback} for a backend behind fetch and count callbacks</li>
+ * <li>{@code items}: the number of items, 10000 by default</li>
+ * <li>{@code iterations}: how many times each session replays its script,
+ * 10 by default</li>
+ * <li>{@code think}: the think time between the steps in milliseconds, 0 by
+ * default</li>
+ * <li>{@code latency}: the latency of a callback backend call in
+ * milliseconds, 0 by default</li>
+ * <li>{@code threads}: {@code virtual} or {@code platform}</li>
+ * <li>{@code pool}: the number of platform threads, 200 by default</li>
+ * </ul>
+ * For instance:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.args="sessions=5000 provider=callback latency=5"
+ * </pre>
+ */
+public class LoadTest {
+
+    private final int sessions;
+    private final String provider;
+    private final int itemCount;
+    private final int iterations;
+    private final long thinkTimeMillis;
+    private final long latencyMillis;
+    private final boolean virtualThreads;
+    private final int poolSize;
+
+    private final List<String> items;
+    private final AtomicLong backendCalls = new AtomicLong();
+
+    private LoadTest(Map<String, String> options) {
+        sessions = Integer.parseInt(options.getOrDefault("sessions", "1000"));
+        provider = options.getOrDefault("provider", "memory");
+        if (!provider.equals("memory") && !provider.equals("callback")) {
+            throw new IllegalArgumentException(
+                "Unknown provider " + provider + ", use memory or callback");
+        }
+        itemCount = Integer.parseInt(options.getOrDefault("items", "10000"));
+        iterations = Integer
+            .parseInt(options.getOrDefault("iterations", "10"));
+        thinkTimeMillis = Long.parseLong(options.getOrDefault("think", "0"));
+        latencyMillis = Long.parseLong(options.getOrDefault("latency", "0"));
+        String threads = options.getOrDefault("threads",
+            hasVirtualThreads() ? "virtual" : "platform");
+        virtualThreads = threads.equals("virtual");
+        if (virtualThreads && !hasVirtualThreads()) {
+            throw new IllegalArgumentException(
+                "Virtual threads need Java 21 or later");
+        }
+        poolSize = Integer.parseInt(options.getOrDefault("pool", "200"));
+        if (poolSize < 1) {
+            throw new IllegalArgumentException(
+                "The pool needs at least one thread, got " + poolSize);
+        }
+        items = Collections.unmodifiableList(IntStream.range(0, itemCount)
+            .mapToObj(i -> "item " + i).collect(Collectors.toList()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException(
+                    "Options are given as name=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator),
+                arg.substring(separator + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    private void run() throws Exception {
+        System.out.printf(Locale.ROOT,
+            "%d sessions, %s provider with %d items, %d iterations, "
+                + "%d ms think time, %d ms backend latency, %s%n",
+            sessions, provider, itemCount, iterations, thinkTimeMillis,
+            latencyMillis, virtualThreads ? "virtual threads"
+                : Math.min(poolSize, sessions) + " platform threads");
+
+        List<SimulatedUser> users = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            users.add(new SimulatedUser(createComboBox(), thinkTimeMillis, i));
+        }
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean.isThreadContentionMonitoringSupported()) {
+            threadBean.setThreadContentionMonitoringEnabled(true);
+        }
+        AtomicLong blockedCount = new AtomicLong();
+        AtomicLong blockedMillis = new AtomicLong();
+
+        backendCalls.set(0);
+        ExecutorService executor = virtualThreads ? newVirtualThreadExecutor()
+            : Executors.newFixedThreadPool(Math.min(poolSize, sessions));
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>(sessions);
+        for (SimulatedUser user : users) {
+            futures.add(executor.submit(() -> {
+                // a pooled thread has been blocked for earlier sessions too
+                ThreadInfo before = threadBean
+                    .getThreadInfo(Thread.currentThread().getId());
+                user.replay(iterations);
+                // virtual threads are not reported by the thread bean
+                ThreadInfo after = threadBean
+                    .getThreadInfo(Thread.currentThread().getId());
+                if (before != null && after != null) {
+                    blockedCount.addAndGet(
+                        after.getBlockedCount() - before.getBlockedCount());
+                    blockedMillis.addAndGet(Math.max(0,
+                        after.getBlockedTime() - before.getBlockedTime()));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        Map<Step, Samples> samples = new EnumMap<>(Step.class);
+        for (Step step : Step.values()) {
+            Samples merged = new Samples();
+            users.forEach(user -> merged.addAll(user.getSamples(step)));
+            samples.put(step, merged);
+        }
+        // the recorded latencies are not part of the session state
+        users.forEach(SimulatedUser::clearSamples);
+        long heapWithSessions = usedHeap();
+        users.clear();
+        long heapPerSession = (heapWithSessions - usedHeap()) / sessions;
+
+        report(samples, elapsed, heapPerSession, blockedCount.get(),
+            blockedMillis.get());
+    }
+
+    private MultiComboBox<String> createComboBox() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        if (provider.equals("memory")) {
+            comboBox.setItems(items);
+        } else {
+            comboBox.setDataProvider(
+                (filter, offset, limit) -> filter(filter).skip(offset)
+                    .limit(limit),
+                filter -> (int) filter(filter).count());
+        }
+        return comboBox;
+    }
+
+    private Stream<String> filter(String filter) {
+        backendCalls.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        return items.stream().filter(item -> item.contains(filter));
+    }
+
+    private void report(Map<Step, Samples> samples, long elapsedNanos,
+                        long heapPerSession, long blockedCount,
+                        long blockedMillis) {
+        Samples all = new Samples();
+        System.out.printf(Locale.ROOT, "%-8s %9s %10s %10s %10s%n", "step",
+            "count", "p50 ms", "p99 ms", "max ms");
+        for (Step step : Step.values()) {
+            all.addAll(samples.get(step));
+            printLatency(step.name().toLowerCase(Locale.ROOT),
+                samples.get(step));
+        }
+        printLatency("all", all);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "throughput: %.0f steps/s in %.1f s%n",
+            all.getCount() / seconds, seconds);
+        if (provider.equals("callback")) {
+            System.out.printf(Locale.ROOT, "backend calls: %.0f/s%n",
+                backendCalls.get() / seconds);
+        }
+        if (virtualThreads) {
+            System.out.println("monitor contention: not reported for "
+                + "virtual threads, run with threads=platform or record "
+                + "jdk.JavaMonitorEnter events with JFR");
+        } else {
+            System.out.printf(Locale.ROOT,
+                "monitor contention: %d blocks, %d ms blocked%n",
+                blockedCount, blockedMillis);
+        }
+        System.out.printf(Locale.ROOT, "heap per session: %.1f KiB%n",
+            heapPerSession / 1024.0);
+    }
+
+    private static void printLatency(String name, Samples samples) {
+        System.out.printf(Locale.ROOT, "%-8s %9d %10.3f %10.3f %10.3f%n",
+            name, samples.getCount(), samples.getPercentile(50) / 1e6,
+            samples.getPercentile(99) / 1e6, samples.getPercentile(100) / 1e6);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        // collects until the used heap settles, a single System.gc() may
+        // leave garbage behind or return before reference processing is done
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(100);
+            long collected = runtime.totalMemory() - runtime.freeMemory();
+            if (collected >= used) {
+                return used;
+            }
+            used = collected;
+        }
+        return used;
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        // looked up reflectively, the load test is compiled for Java 11
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                "Virtual threads need Java 21 or later", e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.vaadin.componentfactory.multiselect.loadtest;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+/**
+ * Growable list of latency samples in nanoseconds. Each simulated user
+ * records into its own instances, they are merged once the run is over.
+ */
+class Samples {
+
+    private long[] values = new long[64];
+    private int count;
+
+    void add(long nanos) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = nanos;
+    }
+
+    void addAll(Samples other) {
+        for (int i = 0; i < other.count; i++) {
+            add(other.values[i]);
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the sample at the given percentile, sorting the samples.
+     *
+     * @param percentile
+     *            the percentile between 0 and 100
+     * @return the sample in nanoseconds, or 0 if there are no samples
+     */
+    long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(values, 0, count);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return values[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,179 @@
+package com.vaadin.componentfactory.multiselect.loadtest;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.componentfactory.multiselect.CachingCallbackDataProvider;
+import com.vaadin.componentfactory.multiselect.ConnectorSimulator;
+import com.vaadin.componentfactory.multiselect.MultiComboBox;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures the serialized size of a UI with a {@link MultiComboBox}, as
+ * replicated or passivated by the session after each request, for different
+ * data providers: right after attaching, after the user has typed filters,
+ * scrolled and selected items with the overlay open, and after closing the
+ * overlay. Each copy is deserialized and asked for a range of items, to
+ * check that it keeps working.
+ * <p>
+ * The options are given as {@code name=value} arguments: {@code items}, the
+ * number of items, 10000 by default, and {@code selected}, the number of
+ * selected items, 1000 by default. For instance:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.vaadin.componentfactory.multiselect.loadtest.SerializationBenchmark -Dexec.args="selected=100"
+ * </pre>
+ */
+public class SerializationBenchmark {
+
+    private static final String[] FILTERS = { "1", "12", "123", "4", "45",
+        "7" };
+
+    /**
+     * The items behind the fetch and count callbacks. Like a database, it
+     * returns new instances on every fetch.
+     */
+    private static final class Backend implements Serializable {
+        private final List<String> items;
+
+        private Backend(List<String> items) {
+            this.items = items;
+        }
+
+        private Stream<String> fetch(String filter, int offset, int limit) {
+            return filter(filter).skip(offset).limit(limit).map(String::new);
+        }
+
+        private int count(String filter) {
+            return (int) filter(filter).count();
+        }
+
+        private Stream<String> filter(String filter) {
+            return items.stream().filter(item -> item.contains(filter));
+        }
+    }
+
+    private final List<String> items;
+    private final Backend backend;
+    private final int selected;
+
+    private SerializationBenchmark(Map<String, String> options) {
+        int itemCount = Integer
+            .parseInt(options.getOrDefault("items", "10000"));
+        selected = Integer.parseInt(options.getOrDefault("selected", "1000"));
+        items = IntStream.range(0, itemCount).mapToObj(i -> "item " + i)
+            .collect(Collectors.toList());
+        backend = new Backend(items);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException(
+                    "Options are given as name=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator),
+                arg.substring(separator + 1));
+        }
+        new SerializationBenchmark(options).run();
+    }
+
+    private void run() {
+        System.out.printf(Locale.ROOT, "%-9s %12s %12s %12s%n", "provider",
+            "attached B", "open B", "closed B");
+        measure("memory", comboBox -> comboBox.setItems(items));
+        measure("callback", comboBox -> comboBox
+            .setDataProvider(backend::fetch, backend::count));
+        measure("caching",
+            comboBox -> comboBox.setDataProvider(
+                new CachingCallbackDataProvider<>(backend::fetch,
+                    backend::count, 100, Duration.ofMinutes(10))));
+        measure("stable", comboBox -> {
+            comboBox.setDataProvider(new CachingCallbackDataProvider<>(
+                backend::fetch, backend::count, 100, Duration.ofMinutes(10)));
+            comboBox.setStableItemKeys(true);
+        });
+    }
+
+    private void measure(String name, Consumer<MultiComboBox<String>> setup) {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        setup.accept(comboBox);
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int attached = simulator.serialize().length;
+
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        for (String filter : FILTERS) {
+            simulator.setRequestedRange(0, pageSize, filter);
+            // like the client, only the pages within the item count
+            int pages = Math.min(3,
+                (Math.max(simulator.getSize(), 1) - 1) / pageSize + 1);
+            for (int page = 1; page < pages; page++) {
+                simulator.setRequestedRange(page * pageSize, pageSize, filter);
+            }
+        }
+        simulator.setRequestedRange(0, pageSize, "");
+        if (comboBox.isStableItemKeys()) {
+            simulator.setCachedRows();
+        }
+        Set<String> selection = new LinkedHashSet<>(
+            items.subList(0, Math.min(selected, items.size())));
+        simulator.run(() -> comboBox.setValue(selection));
+        simulator.clearCalls();
+        int open = simulator.serialize().length;
+        checkCopy(name, simulator, selection);
+
+        simulator.setOpened(false);
+        simulator.clearCalls();
+        int closed = simulator.serialize().length;
+        checkCopy(name, simulator, selection);
+
+        System.out.printf(Locale.ROOT, "%-9s %12d %12d %12d%n", name,
+            attached, open, closed);
+    }
+
+    private static void checkCopy(String name,
+                                  ConnectorSimulator<String> simulator,
+                                  Set<String> selection) {
+        ConnectorSimulator<String> copy = simulator.replicate();
+        int pageSize = copy.getComboBox().getPageSize();
+        copy.setRequestedRange(pageSize, pageSize, "");
+        if (!copy.getComboBox().getValue().equals(selection)
+            || copy.getKey(pageSize) == null) {
+            throw new IllegalStateException(
+                "The deserialized " + name + " combo box doesn't work");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.vaadin.componentfactory.multiselect.loadtest;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.componentfactory.multiselect.ConnectorSimulator;
+import com.vaadin.componentfactory.multiselect.MultiComboBox;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * One simulated user with its own session, UI and {@link MultiComboBox}.
+ * The user replays a script: open the overlay, type a filter one character
+ * at a time, scroll a few pages, toggle an item and close the overlay. The
+ * time the server spends handling each step, including waiting for the
+ * session lock, is recorded per step.
+ */
+class SimulatedUser {
+
+    enum Step {
+        OPEN, TYPE, SCROLL, TOGGLE, CLOSE
+    }
+
+    private static final String FILTER_CHARACTERS = "0123456789";
+
+    private final ConnectorSimulator<String> simulator;
+    private final int pageSize;
+    private final long thinkTimeMillis;
+    private final Random random;
+    private final Map<Step, Samples> samples = new EnumMap<>(Step.class);
+
+    SimulatedUser(MultiComboBox<String> comboBox, long thinkTimeMillis,
+                  long seed) {
+        simulator = new ConnectorSimulator<>(comboBox);
+        simulator.clearCalls();
+        pageSize = comboBox.getPageSize();
+        this.thinkTimeMillis = thinkTimeMillis;
+        random = new Random(seed);
+        for (Step step : Step.values()) {
+            samples.put(step, new Samples());
+        }
+    }
+
+    /**
+     * Replays the script the given number of times.
+     *
+     * @param iterations
+     *            the number of times to replay the script
+     * @throws InterruptedException
+     *             if interrupted while thinking
+     */
+    void replay(int iterations) throws InterruptedException {
+        for (int i = 0; i < iterations; i++) {
+            replayOnce();
+        }
+    }
+
+    private void replayOnce() throws InterruptedException {
+        step(Step.OPEN, () -> {
+            simulator.setOpened(true);
+            return simulator.setRequestedRange(0, pageSize, "");
+        });
+
+        StringBuilder filter = new StringBuilder();
+        int filterLength = 1 + random.nextInt(3);
+        for (int i = 0; i < filterLength; i++) {
+            filter.append(FILTER_CHARACTERS
+                .charAt(random.nextInt(FILTER_CHARACTERS.length())));
+            String typed = filter.toString();
+            step(Step.TYPE,
+                () -> simulator.setRequestedRange(0, pageSize, typed));
+        }
+
+        int pages = Math.min(3,
+            (Math.max(simulator.getSize(), 1) - 1) / pageSize);
+        for (int page = 1; page <= pages; page++) {
+            int start = page * pageSize;
+            String typed = filter.toString();
+            step(Step.SCROLL,
+                () -> simulator.setRequestedRange(start, pageSize, typed));
+        }
+
+        int loaded = simulator.getItems().size();
+        if (loaded > 0) {
+            String key = simulator.getKey(random.nextInt(loaded));
+            if (key != null) {
+                List<String> keys = new ArrayList<>(
+                    simulator.getSelectedKeys());
+                if (!keys.remove(key)) {
+                    keys.add(key);
+                }
+                step(Step.TOGGLE, () -> simulator
+                    .setSelectedKeys(keys.toArray(new String[0])));
+            }
+        }
+
+        step(Step.CLOSE, () -> simulator.setOpened(false));
+    }
+
+    private void step(Step step, Supplier<?> action)
+        throws InterruptedException {
+        long start = System.nanoTime();
+        action.get();
+        samples.get(step).add(System.nanoTime() - start);
+        // the captured calls are not needed and would only grow the heap
+        simulator.clearCalls();
+        if (thinkTimeMillis > 0) {
+            Thread.sleep(thinkTimeMillis);
+        }
+    }
+
+    Samples getSamples(Step step) {
+        return samples.get(step);
+    }
+
+    void clearSamples() {
+        samples.clear();
+    }
+}
@@ -0,0 +1,174 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.FetchItemsCallback;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.DataChangeEvent.DataRefreshEvent;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+
+import java.time.Duration;
+import java.util.EventObject;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Data provider for {@link MultiComboBox} which remembers the results of the
+ * fetch and size callbacks per filter string. Typing the same filter again
+ * is answered from the cache instead of calling the backend.
+ * <p>
+ * The cache is bounded by the number of stored queries, the least recently
+ * used ones are evicted first, and every entry expires after the given time
+ * to live. {@link #refreshAll()} clears the cache, while
+ * {@link #refreshItem(Object)} only replaces the refreshed item in the cached
+ * results.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+public class CachingCallbackDataProvider<T>
+    extends AbstractBackEndDataProvider<T, String> {
+
+    private final FetchItemsCallback<T> fetchItems;
+    private final SerializableFunction<String, Integer> sizeCallback;
+
+    private final ExpiringLruCache<FetchQueryKey, List<T>> fetchCache;
+    private final ExpiringLruCache<String, Integer> sizeCache;
+
+    /**
+     * Creates a new caching data provider.
+     *
+     * @param fetchItems
+     *            a callback for fetching items, not <code>null</code>
+     * @param sizeCallback
+     *            a callback for getting the count of items, not
+     *            <code>null</code>
+     * @param maxEntries
+     *            the maximum number of fetch results, and separately of
+     *            counts, kept in the cache
+     * @param timeToLive
+     *            how long a cached result is used, not <code>null</code>
+     */
+    public CachingCallbackDataProvider(FetchItemsCallback<T> fetchItems,
+                                       SerializableFunction<String, Integer> sizeCallback,
+                                       int maxEntries, Duration timeToLive) {
+        this.fetchItems = Objects.requireNonNull(fetchItems,
+            "Fetch callback cannot be null");
+        this.sizeCallback = Objects.requireNonNull(sizeCallback,
+            "Size callback cannot be null");
+        fetchCache = new ExpiringLruCache<>(maxEntries, timeToLive);
+        sizeCache = new ExpiringLruCache<>(maxEntries, timeToLive);
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        FetchQueryKey key = new FetchQueryKey(query.getFilter().orElse(""),
+            query.getOffset(), query.getLimit());
+        List<T> items = fetchCache.get(key);
+        if (items == null) {
+            items = fetchItems
+                .fetchItems(key.getFilter(), key.getOffset(),
+                    key.getLimit())
+                .collect(Collectors.toList());
+            fetchCache.put(key, items);
+        }
+        return items.stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        Integer size = sizeCache.get(filter);
+        if (size == null) {
+            size = sizeCallback.apply(filter);
+            sizeCache.put(filter, size);
+        }
+        return size;
+    }
+
+    /**
+     * Removes all the cached results. Called automatically whenever this
+     * data provider fires a data change event other than an item refresh.
+     */
+    public void invalidate() {
+        fetchCache.clear();
+        sizeCache.clear();
+    }
+
+    @Override
+    public void refreshItem(T item) {
+        replaceCachedItem(item);
+        super.refreshItem(item);
+    }
+
+    @Override
+    public void refreshItem(T item, boolean refreshChildren) {
+        replaceCachedItem(item);
+        super.refreshItem(item, refreshChildren);
+    }
+
+    private void replaceCachedItem(T item) {
+        Object id = getId(item);
+        fetchCache.replaceAll(items -> items.stream()
+            .map(cached -> Objects.equals(getId(cached), id) ? item : cached)
+            .collect(Collectors.toList()));
+    }
+
+    @Override
+    protected void fireEvent(EventObject event) {
+        // a refreshed item keeps its place, the counts and pages still hold
+        if (!(event instanceof DataRefreshEvent)) {
+            invalidate();
+        }
+        super.fireEvent(event);
+    }
+
+    /**
+     * Gets the number of fetch and size queries answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return fetchCache.getHitCount() + sizeCache.getHitCount();
+    }
+
+    /**
+     * Gets the number of fetch and size queries delegated to the callbacks.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return fetchCache.getMissCount() + sizeCache.getMissCount();
+    }
+
+    /**
+     * Gets the share of queries answered from the cache.
+     *
+     * @return the hit rate between 0 and 1, or 0 if nothing has been queried
+     */
+    public double getHitRate() {
+        long total = getHitCount() + getMissCount();
+        return total == 0 ? 0 : (double) getHitCount() / total;
+    }
+}
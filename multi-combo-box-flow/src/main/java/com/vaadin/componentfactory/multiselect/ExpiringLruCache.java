@@ -0,0 +1,183 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+/**
+ * Size bounded, least recently used cache where every entry expires after a
+ * fixed time to live. All the methods are synchronized so the same instance
+ * can be shared between sessions. The entries are not serialized, a
+ * deserialized cache starts empty.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+class ExpiringLruCache<K, V> implements Serializable {
+
+    private static final class CachedValue<V> implements Serializable {
+        private final V value;
+        private final long expiresAt;
+
+        private CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private transient LinkedHashMap<K, CachedValue<V>> entries;
+
+    private long hitCount;
+    private long missCount;
+    // incremented by clear(), see put(Object, Object, long)
+    private long generation;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            the maximum number of entries kept, should be greater than
+     *            zero
+     * @param timeToLive
+     *            how long an entry is valid after it has been stored, not
+     *            <code>null</code>
+     */
+    ExpiringLruCache(int maxEntries, Duration timeToLive) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                "Maximum number of entries should be greater than zero.");
+        }
+        Objects.requireNonNull(timeToLive, "Time to live cannot be null");
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLive.toMillis();
+        createEntries();
+    }
+
+    private void createEntries() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<K, CachedValue<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached value for the key.
+     *
+     * @param key
+     *            the key to look up
+     * @return the cached value, or {@code null} if there is no valid entry
+     */
+    synchronized V get(K key) {
+        CachedValue<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new CachedValue<>(value,
+            System.currentTimeMillis() + timeToLiveMillis));
+    }
+
+    /**
+     * Stores the value only if the cache has not been cleared since the
+     * given generation was read, so that a value computed before a clear
+     * is not cached after it.
+     *
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     * @param generation
+     *            the generation read before computing the value
+     * @see #getGeneration()
+     */
+    synchronized void put(K key, V value, long generation) {
+        if (generation == this.generation) {
+            put(key, value);
+        }
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Replaces every cached value with the result of the given function,
+     * keeping the entries' expiry times and order.
+     *
+     * @param function
+     *            gives the new value for a cached value
+     */
+    synchronized void replaceAll(UnaryOperator<V> function) {
+        entries.replaceAll((key, entry) -> new CachedValue<>(
+            function.apply(entry.value), entry.expiresAt));
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        createEntries();
+    }
+}
@@ -0,0 +1,71 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Identifies a single call of a {@link MultiComboBox.FetchItemsCallback}, used
+ * as a key when fetch results are cached or shared.
+ */
+final class FetchQueryKey implements Serializable {
+    private final String filter;
+    private final int offset;
+    private final int limit;
+
+    FetchQueryKey(String filter, int offset, int limit) {
+        this.filter = Objects.requireNonNull(filter);
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    String getFilter() {
+        return filter;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FetchQueryKey)) {
+            return false;
+        }
+        FetchQueryKey other = (FetchQueryKey) o;
+        return offset == other.offset && limit == other.limit
+            && filter.equals(other.filter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(filter, offset, limit);
+    }
+}
@@ -0,0 +1,418 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.flow.data.provider.ListDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializablePredicate;
+import com.vaadin.flow.server.VaadinService;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * List data provider which resolves the items matching a filter only once.
+ * <p>
+ * The matching items are filtered and sorted on the first request for a
+ * filter and kept as an array of indexes into the collection. Subsequent page
+ * requests slice that array and counts read its length, instead of streaming
+ * the whole collection through the filter and the sorting again.
+ * <p>
+ * When the collection has at least {@link #getParallelThreshold()} items, the
+ * array is built in parallel, in a thread pool dedicated to this class and
+ * bounded to half of the available processors, so it does not compete with
+ * the common pool. The pool is shut down with the {@link VaadinService} it
+ * was created in, or by {@link #shutdownDefaultPool()}, and another pool
+ * can be given with {@link #setFilteringPool(ForkJoinPool)}. The item
+ * filters and the sort comparators then run in the pool threads, where
+ * {@code UI.getCurrent()} and {@code VaadinSession.getCurrent()} are not
+ * available. Cached indexes are dropped whenever the provider fires a
+ * data change event, for instance on {@link #refreshAll()}, and on
+ * {@link #clearIndexCache()}.
+ * <p>
+ * When the filter text is extended, for instance from "jo" to "joh", and the
+ * item filter is declared
+ * {@link MultiComboBox.CompilingItemFilter#isMonotonic() monotonic}, only
+ * the items matching the previous filter are tested.
+ * <p>
+ * A provider should not be shared between combo boxes: the combo box it is
+ * set to replaces its sort comparator with one listing its own selection
+ * first, and {@link MultiComboBox#updateItems(Collection)} replaces the items
+ * without notifying the other listeners. The requests are served from a
+ * snapshot of the items and the cached indexes are guarded, so that a
+ * refresh from a background thread doesn't break a request in progress. The
+ * backing collection itself should not be modified while it is in use,
+ * replace it and call {@link #refreshAll()} instead.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+public class IndexedListDataProvider<T> extends ListDataProvider<T> {
+
+    /**
+     * The default number of items from which filtering runs in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
+
+    private static final int MAX_CACHED_FILTERS = 4;
+
+    private static ForkJoinPool pool;
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private transient ForkJoinPool filteringPool;
+
+    private volatile Collection<T> items;
+
+    private transient volatile IndexCache indexCache;
+
+    /**
+     * The items at the time the indexes are built, with the indexes built
+     * from them. It is replaced as a whole, so that a request never pairs an
+     * index with the items of another snapshot.
+     */
+    private final class IndexCache {
+        private final Object[] snapshot = getItems().toArray();
+        // access ordered, so even the reads are guarded by the map
+        private final Map<List<Object>, int[]> indexes = new LinkedHashMap<>(
+            16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<List<Object>, int[]> eldest) {
+                return size() > MAX_CACHED_FILTERS;
+            }
+        };
+    }
+
+    /**
+     * Constructs a new indexed list data provider.
+     * <p>
+     * No protective copy is made of the list, and changes in the provided
+     * backing Collection will be visible via this data provider. The caller
+     * should copy the list if necessary.
+     *
+     * @param items
+     *            the initial data, not null
+     */
+    public IndexedListDataProvider(Collection<T> items) {
+        super(items);
+        this.items = items;
+    }
+
+    @Override
+    public Collection<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Replaces the backing collection without notifying the listeners. The
+     * caller is responsible for telling the components what changed.
+     *
+     * @param items
+     *            the new data, not null
+     */
+    void replaceItems(Collection<T> items) {
+        this.items = Objects.requireNonNull(items, "Items cannot be null");
+        clearIndexCache();
+    }
+
+    /**
+     * Sets the number of items from which filtering and sorting are run in
+     * parallel.
+     *
+     * @param parallelThreshold
+     *            the minimum collection size for parallel filtering, should
+     *            be greater than zero
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException(
+                "Parallel threshold should be greater than zero.");
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Gets the number of items from which filtering and sorting are run in
+     * parallel.
+     * <p>
+     * The default value is {@value #DEFAULT_PARALLEL_THRESHOLD}.
+     *
+     * @return the minimum collection size for parallel filtering
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the pool in which the filtering and sorting run in parallel, for
+     * instance a pool managed by the application. The pool is not
+     * serialized, a deserialized provider uses the default pool.
+     *
+     * @param filteringPool
+     *            the pool to use, or <code>null</code> to use the default
+     *            pool shared by all the providers
+     */
+    public void setFilteringPool(ForkJoinPool filteringPool) {
+        this.filteringPool = filteringPool;
+    }
+
+    /**
+     * Gets the pool in which the filtering and sorting run in parallel.
+     *
+     * @return the pool set with {@link #setFilteringPool(ForkJoinPool)}, or
+     *         <code>null</code> if the default pool is used
+     */
+    public ForkJoinPool getFilteringPool() {
+        return filteringPool;
+    }
+
+    /**
+     * Shuts the default filtering pool down. Called automatically when the
+     * {@link VaadinService} in which the pool was created is destroyed;
+     * applications running the providers outside of a Vaadin request should
+     * call it when they are undeployed, so that the pool threads don't keep
+     * the application classes in memory. A new pool is created if needed
+     * afterwards.
+     */
+    public static synchronized void shutdownDefaultPool() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    @Override
+    public Stream<T> fetch(Query<T, SerializablePredicate<T>> query) {
+        IndexCache cache = getIndexCache();
+        int[] index = getIndex(cache, query);
+        Object[] items = cache.snapshot;
+        int from = Math.min(query.getOffset(), index.length);
+        int to = (int) Math.min((long) from + query.getLimit(), index.length);
+        return Arrays.stream(index, from, to).mapToObj(i -> item(items, i));
+    }
+
+    @Override
+    public int size(Query<T, SerializablePredicate<T>> query) {
+        return getIndex(getIndexCache(), query).length;
+    }
+
+    /**
+     * Drops the cached indexes without notifying the listeners, so that the
+     * next requests filter and sort the items again. Use this when the result
+     * of the sort comparator changes while the items stay the same.
+     */
+    public void clearIndexCache() {
+        indexCache = null;
+    }
+
+    @Override
+    protected void fireEvent(EventObject event) {
+        clearIndexCache();
+        super.fireEvent(event);
+    }
+
+    private IndexCache getIndexCache() {
+        IndexCache cache = indexCache;
+        if (cache == null) {
+            // concurrent requests may both build one, the last one is kept
+            cache = new IndexCache();
+            indexCache = cache;
+        }
+        return cache;
+    }
+
+    private int[] getIndex(IndexCache cache,
+                           Query<T, SerializablePredicate<T>> query) {
+        SerializablePredicate<T> queryFilter = query.getFilter().orElse(null);
+        Comparator<T> inMemorySorting = query.getInMemorySorting();
+        List<Object> key = Arrays.asList(getFilter(), queryFilter,
+            inMemorySorting, getSortComparator());
+        int[] index;
+        synchronized (cache.indexes) {
+            index = cache.indexes.get(key);
+        }
+        if (index == null) {
+            index = narrow(cache, key, queryFilter);
+        }
+        if (index == null) {
+            Object[] snapshot = cache.snapshot;
+            index = buildIndex(snapshot, snapshot.length >= parallelThreshold,
+                filteringPool,
+                combine(getFilter(), queryFilter, (f1, f2) -> f1.and(f2)),
+                combine(inMemorySorting, getSortComparator(),
+                    (c1, c2) -> c1.thenComparing(c2)));
+        }
+        synchronized (cache.indexes) {
+            cache.indexes.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Resolves the index of a filter refining a cached one, for instance
+     * "joh" after "jo", by testing only the items matching the cached filter.
+     * Only filters declared monotonic are narrowed.
+     */
+    private int[] narrow(IndexCache cache, List<Object> key,
+                         SerializablePredicate<T> queryFilter) {
+        if (!(queryFilter instanceof ItemFilterPredicate)) {
+            return null;
+        }
+        ItemFilterPredicate<T> refined = (ItemFilterPredicate<T>) queryFilter;
+        ItemFilterPredicate<?> base = null;
+        int[] baseIndex = null;
+        Map<List<Object>, int[]> indexes;
+        synchronized (cache.indexes) {
+            indexes = new HashMap<>(cache.indexes);
+        }
+        for (Map.Entry<List<Object>, int[]> entry : indexes.entrySet()) {
+            List<Object> cached = entry.getKey();
+            if (!Objects.equals(cached.get(0), key.get(0))
+                || !Objects.equals(cached.get(2), key.get(2))
+                || !Objects.equals(cached.get(3), key.get(3))
+                || !(cached.get(1) instanceof ItemFilterPredicate)) {
+                continue;
+            }
+            ItemFilterPredicate<?> candidate = (ItemFilterPredicate<?>) cached
+                .get(1);
+            if (refined.refines(candidate) && (base == null || candidate
+                .getFilterText().length() > base.getFilterText().length())) {
+                base = candidate;
+                baseIndex = entry.getValue();
+            }
+        }
+        if (baseIndex == null) {
+            return null;
+        }
+        Object[] items = cache.snapshot;
+        int[] subset = baseIndex;
+        if (subset.length < parallelThreshold) {
+            return Arrays.stream(subset)
+                .filter(i -> refined.test(item(items, i))).toArray();
+        }
+        return getPool(filteringPool)
+            .invoke(ForkJoinTask.adapt(() -> Arrays.stream(subset).parallel()
+                .filter(i -> refined.test(item(items, i))).toArray()));
+    }
+
+    private static <T> int[] buildIndex(Object[] items, boolean parallel,
+                                        ForkJoinPool filteringPool,
+                                        Predicate<T> filter, Comparator<T> comparator) {
+        if (!parallel) {
+            return filterAndSort(items, false, filter, comparator);
+        }
+        return getPool(filteringPool).invoke(ForkJoinTask.adapt(
+            () -> filterAndSort(items, true, filter, comparator)));
+    }
+
+    private static <T> int[] filterAndSort(Object[] items, boolean parallel,
+                                           Predicate<T> filter, Comparator<T> comparator) {
+        IntStream matching = IntStream.range(0, items.length);
+        if (parallel) {
+            matching = matching.parallel();
+        }
+        if (filter != null) {
+            matching = matching.filter(i -> filter.test(item(items, i)));
+        }
+        if (comparator instanceof SelectionFirstComparator) {
+            // Stable partition, no need to sort
+            Set<T> selected = ((SelectionFirstComparator<T>) comparator)
+                .getSelection();
+            if (selected == null || selected.isEmpty()) {
+                return matching.toArray();
+            }
+            int[] all = matching.toArray();
+            IntStream first = Arrays.stream(all);
+            IntStream rest = Arrays.stream(all);
+            if (parallel) {
+                first = first.parallel();
+                rest = rest.parallel();
+            }
+            return IntStream.concat(
+                first.filter(i -> selected.contains(item(items, i))),
+                rest.filter(i -> !selected.contains(item(items, i))))
+                .toArray();
+        }
+        if (comparator == null) {
+            return matching.toArray();
+        }
+        return matching.boxed()
+            .sorted((i1, i2) -> comparator.compare(item(items, i1),
+                item(items, i2)))
+            .mapToInt(Integer::intValue).toArray();
+    }
+
+    private static <C> C combine(C first, C second,
+                                 BinaryOperator<C> combiner) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return combiner.apply(first, second);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T item(Object[] items, int index) {
+        return (T) items[index];
+    }
+
+    private static ForkJoinPool getPool(ForkJoinPool filteringPool) {
+        return filteringPool != null ? filteringPool : getDefaultPool();
+    }
+
+    private static synchronized ForkJoinPool getDefaultPool() {
+        if (pool == null) {
+            int parallelism = Math.max(1,
+                Runtime.getRuntime().availableProcessors() / 2);
+            pool = new ForkJoinPool(parallelism, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                    .newThread(p);
+                thread.setName("multi-combo-box-filter-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+            VaadinService service = VaadinService.getCurrent();
+            if (service != null) {
+                service.addServiceDestroyListener(
+                    event -> shutdownDefaultPool());
+            }
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,91 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.CompilingItemFilter;
+import com.vaadin.flow.function.SerializablePredicate;
+
+import java.util.Objects;
+
+/**
+ * Filter text compiled with a {@link CompilingItemFilter}. Two instances are
+ * equal when they come from the same item filter and filter text, which lets
+ * data providers recognize a filter they have already resolved.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+final class ItemFilterPredicate<T> implements SerializablePredicate<T> {
+
+    private final CompilingItemFilter<T> itemFilter;
+    private final String filterText;
+    private final SerializablePredicate<T> matcher;
+
+    ItemFilterPredicate(CompilingItemFilter<T> itemFilter, String filterText) {
+        this.itemFilter = itemFilter;
+        this.filterText = filterText;
+        this.matcher = Objects.requireNonNull(itemFilter.compile(filterText),
+            "Compiled filter cannot be null");
+    }
+
+    String getFilterText() {
+        return filterText;
+    }
+
+    /**
+     * Checks whether this filter only matches items matched by the other
+     * filter, which is the case when both come from the same monotonic item
+     * filter and this filter text extends the other one.
+     *
+     * @param other
+     *            the other filter
+     * @return {@code true} if this filter matches a subset of the items
+     *         matched by the other filter
+     */
+    boolean refines(ItemFilterPredicate<?> other) {
+        return itemFilter == other.itemFilter && itemFilter.isMonotonic()
+            && filterText.startsWith(other.filterText);
+    }
+
+    @Override
+    public boolean test(T item) {
+        return matcher.test(item);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ItemFilterPredicate)) {
+            return false;
+        }
+        ItemFilterPredicate<?> other = (ItemFilterPredicate<?>) o;
+        return itemFilter == other.itemFilter
+            && filterText.equals(other.filterText);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(itemFilter), filterText);
+    }
+}
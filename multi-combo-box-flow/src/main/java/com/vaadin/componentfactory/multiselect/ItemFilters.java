@@ -0,0 +1,204 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.CompilingItemFilter;
+import com.vaadin.componentfactory.multiselect.MultiComboBox.ItemFilter;
+import com.vaadin.flow.component.ItemLabelGenerator;
+import com.vaadin.flow.function.SerializablePredicate;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Built-in {@link CompilingItemFilter}s matching the filter text against the
+ * labels of the items. The filter text is split, lower-cased and normalized
+ * once per filter change, only the labels are processed per item. All of them
+ * are monotonic.
+ */
+public final class ItemFilters {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private static final class MonotonicItemFilter<T>
+        implements CompilingItemFilter<T> {
+        private final CompilingItemFilter<T> itemFilter;
+
+        private MonotonicItemFilter(CompilingItemFilter<T> itemFilter) {
+            this.itemFilter = itemFilter;
+        }
+
+        @Override
+        public SerializablePredicate<T> compile(String filterText) {
+            return itemFilter.compile(filterText);
+        }
+
+        @Override
+        public boolean isMonotonic() {
+            return true;
+        }
+    }
+
+    private ItemFilters() {
+    }
+
+    /**
+     * Declares the given filter monotonic: extending the filter text never
+     * matches an item which the shorter text didn't match.
+     *
+     * @param itemFilter
+     *            the monotonic filter, not <code>null</code>
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @return the item filter, declared monotonic
+     * @see CompilingItemFilter#isMonotonic()
+     */
+    public static <T> CompilingItemFilter<T> monotonic(
+        CompilingItemFilter<T> itemFilter) {
+        Objects.requireNonNull(itemFilter, "Item filter cannot be null");
+        return new MonotonicItemFilter<>(itemFilter);
+    }
+
+    /**
+     * Declares the given filter monotonic: extending the filter text never
+     * matches an item which the shorter text didn't match.
+     *
+     * @param itemFilter
+     *            the monotonic filter, not <code>null</code>
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @return the item filter, declared monotonic
+     * @see ItemFilter#isMonotonic()
+     */
+    public static <T> ItemFilter<T> monotonic(ItemFilter<T> itemFilter) {
+        Objects.requireNonNull(itemFilter, "Item filter cannot be null");
+        return new ItemFilter<T>() {
+            @Override
+            public boolean test(T item, String filterText) {
+                return itemFilter.test(item, filterText);
+            }
+
+            @Override
+            public boolean isMonotonic() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Creates a filter showing the items whose label contains every word of
+     * the filter text, in any order, ignoring case.
+     *
+     * @param labelGenerator
+     *            gives the label of an item, not <code>null</code>
+     * @param locale
+     *            the locale used for ignoring case, not <code>null</code>
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @return the item filter
+     */
+    public static <T> CompilingItemFilter<T> containsAllWords(
+        ItemLabelGenerator<T> labelGenerator, Locale locale) {
+        Objects.requireNonNull(labelGenerator,
+            "The item label generator can not be null");
+        Objects.requireNonNull(locale, "Locale cannot be null");
+        return monotonic(filterText -> {
+            String[] words = words(filterText.toLowerCase(locale));
+            return item -> containsAll(
+                labelGenerator.apply(item).toLowerCase(locale), words);
+        });
+    }
+
+    /**
+     * Creates a filter showing the items whose label starts with the filter
+     * text, ignoring case.
+     *
+     * @param labelGenerator
+     *            gives the label of an item, not <code>null</code>
+     * @param locale
+     *            the locale used for ignoring case, not <code>null</code>
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @return the item filter
+     */
+    public static <T> CompilingItemFilter<T> startsWith(
+        ItemLabelGenerator<T> labelGenerator, Locale locale) {
+        Objects.requireNonNull(labelGenerator,
+            "The item label generator can not be null");
+        Objects.requireNonNull(locale, "Locale cannot be null");
+        return monotonic(filterText -> {
+            String prefix = filterText.toLowerCase(locale);
+            return item -> labelGenerator.apply(item).toLowerCase(locale)
+                .startsWith(prefix);
+        });
+    }
+
+    /**
+     * Creates a filter showing the items whose label contains every word of
+     * the filter text, in any order, ignoring case and accents, so that
+     * {@code "jose"} matches {@code "José"}.
+     *
+     * @param labelGenerator
+     *            gives the label of an item, not <code>null</code>
+     * @param locale
+     *            the locale used for ignoring case, not <code>null</code>
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @return the item filter
+     */
+    public static <T> CompilingItemFilter<T> containsAllWordsIgnoringAccents(
+        ItemLabelGenerator<T> labelGenerator, Locale locale) {
+        Objects.requireNonNull(labelGenerator,
+            "The item label generator can not be null");
+        Objects.requireNonNull(locale, "Locale cannot be null");
+        return monotonic(filterText -> {
+            String[] words = words(removeAccents(filterText).toLowerCase(locale));
+            return item -> containsAll(
+                removeAccents(labelGenerator.apply(item)).toLowerCase(locale),
+                words);
+        });
+    }
+
+    private static String[] words(String text) {
+        return Arrays.stream(WHITESPACE.split(text.trim()))
+            .filter(word -> !word.isEmpty()).toArray(String[]::new);
+    }
+
+    private static boolean containsAll(String label, String[] words) {
+        for (String word : words) {
+            if (!label.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String removeAccents(String text) {
+        return COMBINING_MARKS
+            .matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+            .replaceAll("");
+    }
+}
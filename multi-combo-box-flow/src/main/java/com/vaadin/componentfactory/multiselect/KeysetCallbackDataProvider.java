@@ -0,0 +1,110 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.SeekFetchItemsCallback;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableFunction;
+
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Data provider backed by a {@link SeekFetchItemsCallback}. It remembers, per
+ * filter, the sort key of the last item of every fetched page, so that the
+ * fetch of the following page can continue from that key instead of skipping
+ * rows by offset.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ * @param <K>
+ *            the sort key type
+ */
+class KeysetCallbackDataProvider<T, K>
+    extends AbstractBackEndDataProvider<T, String> {
+
+    private static final int MAX_REMEMBERED_FILTERS = 16;
+
+    private final SeekFetchItemsCallback<T, K> fetchItems;
+    private final SerializableFunction<T, K> sortKeyProvider;
+    private final SerializableFunction<String, Integer> sizeCallback;
+
+    // filter -> offset -> sort key of the item just before the offset, not
+    // serialized since the offset works without the keys too
+    private transient LinkedHashMap<String, Map<Integer, K>> boundaryKeys;
+
+    KeysetCallbackDataProvider(SeekFetchItemsCallback<T, K> fetchItems,
+                               SerializableFunction<T, K> sortKeyProvider,
+                               SerializableFunction<String, Integer> sizeCallback) {
+        this.fetchItems = fetchItems;
+        this.sortKeyProvider = sortKeyProvider;
+        this.sizeCallback = sizeCallback;
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        int offset = query.getOffset();
+        Map<Integer, K> keys = getBoundaryKeys().computeIfAbsent(filter,
+            f -> new HashMap<>());
+        // Random jumps have no known key and fall back to the offset
+        K afterKey = offset == 0 ? null : keys.get(offset);
+        List<T> items = fetchItems
+            .fetchItems(filter, afterKey, offset, query.getLimit())
+            .collect(Collectors.toList());
+        if (!items.isEmpty()) {
+            keys.put(offset + items.size(),
+                sortKeyProvider.apply(items.get(items.size() - 1)));
+        }
+        return items.stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        return sizeCallback.apply(query.getFilter().orElse(""));
+    }
+
+    @Override
+    protected void fireEvent(EventObject event) {
+        boundaryKeys = null;
+        super.fireEvent(event);
+    }
+
+    private Map<String, Map<Integer, K>> getBoundaryKeys() {
+        if (boundaryKeys == null) {
+            boundaryKeys = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                    Map.Entry<String, Map<Integer, K>> eldest) {
+                    return size() > MAX_REMEMBERED_FILTERS;
+                }
+            };
+        }
+        return boundaryKeys;
+    }
+}
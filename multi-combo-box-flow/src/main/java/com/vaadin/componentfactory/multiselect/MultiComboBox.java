@@ -22,12 +22,15 @@ package com.vaadin.componentfactory.multiselect;
 
 import com.vaadin.flow.component.AttachEvent;
 import com.vaadin.flow.component.ClientCallable;
+import com.vaadin.flow.component.ComponentEvent;
+import com.vaadin.flow.component.ComponentEventListener;
 import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.HasHelper;
 import com.vaadin.flow.component.HasSize;
 import com.vaadin.flow.component.HasValidation;
 import com.vaadin.flow.component.ItemLabelGenerator;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
 import com.vaadin.flow.component.dependency.CssImport;
 import com.vaadin.flow.component.dependency.JavaScript;
 import com.vaadin.flow.component.dependency.JsModule;
@@ -37,33 +40,51 @@ import com.vaadin.flow.data.provider.CallbackDataProvider;
 import com.vaadin.flow.data.provider.CompositeDataGenerator;
 import com.vaadin.flow.data.provider.DataChangeEvent;
 import com.vaadin.flow.data.provider.DataCommunicator;
+import com.vaadin.flow.data.provider.DataGenerator;
 import com.vaadin.flow.data.provider.DataKeyMapper;
 import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
 import com.vaadin.flow.data.provider.ListDataProvider;
 import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.renderer.LitRenderer;
 import com.vaadin.flow.data.renderer.Renderer;
 import com.vaadin.flow.data.renderer.Rendering;
 import com.vaadin.flow.dom.Element;
+import com.vaadin.flow.function.SerializableBiFunction;
 import com.vaadin.flow.function.SerializableBiPredicate;
-import com.vaadin.flow.function.SerializableComparator;
 import com.vaadin.flow.function.SerializableConsumer;
 import com.vaadin.flow.function.SerializableFunction;
+import com.vaadin.flow.function.SerializablePredicate;
 import com.vaadin.flow.internal.JsonSerializer;
 import com.vaadin.flow.internal.JsonUtils;
+import com.vaadin.flow.server.Command;
 import com.vaadin.flow.shared.Registration;
 import elemental.json.Json;
 import elemental.json.JsonArray;
 import elemental.json.JsonObject;
 import elemental.json.JsonValue;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -73,11 +94,43 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
     implements HasSize, HasValidation,
     HasFilterableDataProvider<T, String>, HasHelper {
 
-    private static final String PROP_INPUT_ELEMENT_VALUE = "_inputElementValue";
-    private static final String PROP_SELECTED_ITEM = "selectedItem";
     private static final String PROP_VALUE = "selectedItems";
+    // key of the chip standing for the selected items past the display limit,
+    // never given out by the key mappers
+    private static final String MORE_SELECTED_ITEMS_KEY = "more";
     private static final String PROP_AUTO_OPEN_DISABLED = "autoOpenDisabled";
-    private Registration dataProviderListener = null;
+    private static final String ROW_VERSION = "version";
+    private static final int MAX_CLIENT_ROW_VERSIONS = 10000;
+    // the data communicator serves up to ten pages at once
+    private static final int MAX_DATA_COMMUNICATOR_PAGE_SIZE =
+        Integer.MAX_VALUE / 10;
+    private DataChangeListener<T> dataProviderListener = null;
+    // Data change events are buffered and applied once before the response
+    private boolean dataChangeFlushScheduled;
+    private boolean pendingRefreshAll;
+    private final Map<Object, T> pendingItemRefreshes = new LinkedHashMap<>();
+    // Items added and removed by the value change in progress, when known
+    private SelectionDelta<T> pendingSelectionDelta;
+    // Set while updateItems() puts new instances of equal items in the value
+    private boolean replacingSelectedItems;
+    // Updates submitted from any thread, applied in one UI.access batch
+    private volatile UI attachedUi;
+    private final AtomicBoolean submittedUpdatesScheduled = new AtomicBoolean();
+    private final Queue<SerializableFunction<PersistentLinkedHashSet<T>, PersistentLinkedHashSet<T>>> submittedSelectionChanges = new ConcurrentLinkedQueue<>();
+    private final Queue<T> submittedRefreshes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean submittedRefreshAll = new AtomicBoolean();
+    // Range requests of the client, merged per round trip and debounced
+    private int minimumFilterLength;
+    private Duration filterDebounce = Duration.ZERO;
+    private RequestedRange pendingRequestedRange;
+    private boolean requestedRangeScheduled;
+    // the delayed task is lost in serialization
+    private transient boolean debouncedRangeScheduled;
+    private long lastFilterChange;
+    // set when a range was not queried, the client may no longer have the
+    // range of the last applied filter
+    private boolean requestedRangeSkipped;
+    private PageSizeTuner pageSizeTuner;
     private boolean shouldForceServerSideFiltering = false;
 
     private MultiComboboxMode currentMode = MultiComboboxMode.EAGER;
@@ -108,8 +161,104 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         public Stream<T> fetchItems(String filter, int offset, int limit);
     }
 
+    /**
+     * A callback method for fetching a page of items together with the total
+     * number of items matching the filter. The callback is provided with a
+     * non-null string filter, offset index and limit.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    @FunctionalInterface
+    public interface FetchPageCallback<T> extends Serializable {
+
+        /**
+         * Returns the items that match the given filter, limiting the results
+         * with given offset and limit, and the count of all the items that
+         * match the filter.
+         *
+         * @param filter
+         *            a non-null filter string
+         * @param offset
+         *            the first index to fetch
+         * @param limit
+         *            the fetched item count
+         * @return the page of items, not <code>null</code>
+         */
+        public ItemPage<T> fetchPage(String filter, int offset, int limit);
+    }
+
+    /**
+     * A callback method for fetching items while leaving out some items. The
+     * callback is provided with a non-null string filter, the items to leave
+     * out, offset index and limit.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    @FunctionalInterface
+    public interface ExcludingFetchItemsCallback<T> extends Serializable {
+
+        /**
+         * Returns a stream of items that match the given filter and are not
+         * among the excluded items, limiting the results with given offset
+         * and limit.
+         *
+         * @param filter
+         *            a non-null filter string
+         * @param excludedItems
+         *            the items to leave out of the results, not
+         *            <code>null</code>
+         * @param offset
+         *            the first index to fetch, counted without the excluded
+         *            items
+         * @param limit
+         *            the fetched item count
+         * @return stream of items
+         */
+        public Stream<T> fetchItems(String filter, Set<T> excludedItems,
+                                    int offset, int limit);
+    }
+
+    /**
+     * A callback method for fetching items with keyset (seek) pagination. The
+     * callback is provided with a non-null string filter, the sort key of the
+     * item preceding the requested range when it's known, the offset index
+     * and limit.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @param <K>
+     *            the sort key type
+     */
+    @FunctionalInterface
+    public interface SeekFetchItemsCallback<T, K> extends Serializable {
+
+        /**
+         * Returns a stream of items that match the given filter, limiting the
+         * results with given limit. The first returned item is the one
+         * following {@code afterKey} in the sort order, or the one at
+         * {@code offset} if {@code afterKey} is {@code null}.
+         *
+         * @param filter
+         *            a non-null filter string
+         * @param afterKey
+         *            the sort key of the last item before the requested range,
+         *            or {@code null} if the range starts from the first item
+         *            or the key is not known
+         * @param offset
+         *            the first index to fetch, to be used when
+         *            {@code afterKey} is {@code null}
+         * @param limit
+         *            the fetched item count
+         * @return stream of items
+         */
+        public Stream<T> fetchItems(String filter, K afterKey, int offset,
+                                    int limit);
+    }
+
     private final class UpdateQueue implements ArrayUpdater.Update {
-        private transient List<Runnable> queue = new ArrayList<>();
+        private final List<Command> queue = new ArrayList<>();
 
         private UpdateQueue(int size) {
             enqueue("$connector.updateSize", size);
@@ -117,8 +266,14 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
 
         @Override
         public void set(int start, List<JsonValue> items) {
+            PageSizeTuner tuner = pageSizeTuner;
+            if (tuner != null) {
+                tuner.recordRows(items.size(), items.stream()
+                    .mapToLong(item -> item.toJson().length()).sum());
+            }
             enqueue("$connector.set", start,
-                items.stream().collect(JsonUtils.asArray()),
+                items.stream().map(MultiComboBox.this::skipCachedRow)
+                    .collect(JsonUtils.asArray()),
                 MultiComboBox.this.lastFilter);
         }
 
@@ -130,7 +285,7 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         @Override
         public void commit(int updateId) {
             enqueue("$connector.confirm", updateId, MultiComboBox.this.lastFilter);
-            queue.forEach(Runnable::run);
+            queue.forEach(Command::execute);
             queue.clear();
         }
 
@@ -161,12 +316,66 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
     public interface ItemFilter<T> extends SerializableBiPredicate<T, String> {
         @Override
         public boolean test(T item, String filterText);
+
+        /**
+         * Tells whether the filter is monotonic: extending the filter text
+         * never matches an item which the shorter text didn't match. The
+         * matches of a monotonic filter are narrowed down from the previous
+         * matches when the user keeps typing.
+         * <p>
+         * By default filters are not monotonic, see
+         * {@link ItemFilters#monotonic(ItemFilter)}.
+         *
+         * @return {@code true} if the filter is monotonic
+         */
+        public default boolean isMonotonic() {
+            return false;
+        }
+    }
+
+    /**
+     * Item filter working in two stages: the user typed string is first
+     * compiled into a matcher, once per filter change, and the matcher is then
+     * tested against each item. Any tokenizing, normalizing or pattern
+     * compiling of the filter text belongs to the compile step.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     * @see ItemFilters
+     */
+    @FunctionalInterface
+    public interface CompilingItemFilter<T> extends Serializable {
+
+        /**
+         * Compiles the filter text into a matcher for the items.
+         *
+         * @param filterText
+         *            the non-null text typed by the user
+         * @return the matcher for the items, not <code>null</code>
+         */
+        public SerializablePredicate<T> compile(String filterText);
+
+        /**
+         * Tells whether the filter is monotonic: extending the filter text
+         * never matches an item which the shorter text didn't match. The
+         * matches of a monotonic filter are narrowed down from the previous
+         * matches when the user keeps typing.
+         * <p>
+         * By default filters are not monotonic, see
+         * {@link ItemFilters#monotonic(CompilingItemFilter)}.
+         *
+         * @return {@code true} if the filter is monotonic
+         */
+        public default boolean isMonotonic() {
+            return false;
+        }
     }
 
     private ItemLabelGenerator<T> itemLabelGenerator = String::valueOf;
 
     private Renderer<T> renderer;
     private boolean renderScheduled;
+    private Registration renderingRegistration;
 
     // Filter set by the client when requesting data. It's sent back to client
     // together with the response so client may know for what filter data is
@@ -175,6 +384,42 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
 
     private DataCommunicator<T> dataCommunicator;
     private final CompositeDataGenerator<T> dataGenerator = new CompositeDataGenerator<>();
+    private final StableKeyMapper<T> itemKeyMapper = new StableKeyMapper<>();
+    // Row versions the client has, when it keeps its rows over resets. Not
+    // serialized, the rows are sent in full until the client tells again.
+    private transient Map<String, String> clientRowVersions;
+    // Set when deserialized, see restoreAfterDeserialization()
+    private transient boolean deserialized;
+
+    /**
+     * Generates the item data, with a version of the content when the client
+     * has reported the rows it keeps.
+     */
+    private final DataGenerator<T> rowDataGenerator = new DataGenerator<T>() {
+        @Override
+        public void generateData(T item, JsonObject jsonObject) {
+            dataGenerator.generateData(item, jsonObject);
+            if (clientRowVersions != null) {
+                jsonObject.put(ROW_VERSION,
+                    Integer.toHexString(jsonObject.toJson().hashCode()));
+            }
+        }
+
+        @Override
+        public void destroyData(T item) {
+            dataGenerator.destroyData(item);
+        }
+
+        @Override
+        public void destroyAllData() {
+            dataGenerator.destroyAllData();
+        }
+
+        @Override
+        public void refreshData(T item) {
+            dataGenerator.refreshData(item);
+        }
+    };
     private Registration dataGeneratorRegistration;
 
     private Element template;
@@ -190,6 +435,17 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
     }
 
     private UserProvidedFilter userProvidedFilter = UserProvidedFilter.UNDECIDED;
+    // set by setDataProvider(FetchItemsCallback) for the data provider it sets
+    private boolean undefinedSize;
+
+    private int parallelFilteringThreshold = IndexedListDataProvider.DEFAULT_PARALLEL_THRESHOLD;
+
+    private int selectedItemsDisplayLimit;
+    // Selected items the client knows about when the display limit leaves
+    // some of them out, null when all the selected items have been sent
+    private Set<T> displayedSelection;
+    private SerializableFunction<Integer, String> moreSelectedItemsLabelGenerator =
+        count -> "+" + count + " more";
 
     /**
      * Creates an empty combo box with the defined page size for lazy loading.
@@ -221,10 +477,30 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
                 setItems();
             }
         });
-        // sort on close
+        addValueChangeListener(this::fireSelectionChange);
+        // sort on close, a backend provider doesn't sort by the selection
+        // and keeps the results it may have cached
         addOpenedChangeListener(event -> {
             if (!event.isOpened()) {
-                getDataProvider().refreshAll();
+                applyTunedPageSize();
+                if (getDataProvider().isInMemory()
+                    || getDataProvider() instanceof SelectedFirstDataProvider) {
+                    getDataProvider().refreshAll();
+                }
+            }
+        });
+        // the selected items are listed first, a selection changed while
+        // closed is taken into account on the next opening
+        addValueChangeListener(event -> {
+            if (isOpened()) {
+                return;
+            }
+            if (getDataProvider() instanceof IndexedListDataProvider) {
+                ((IndexedListDataProvider<?>) getDataProvider())
+                    .clearIndexCache();
+            } else if (getDataProvider() instanceof SelectedFirstDataProvider) {
+                ((SelectedFirstDataProvider<?>) getDataProvider())
+                    .clearSelectionSnapshot();
             }
         });
         getElement().setAttribute("theme", "vcf-multiselect-combo-box");
@@ -288,26 +564,60 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
             return comboBox.getEmptyValue();
         }
         JsonArray presentationArray = (JsonArray) presentation;
-        Set<T> result = new HashSet<>();
+        Set<T> oldValue = comboBox.getValue() == null ? Collections.emptySet()
+            : comboBox.getValue();
+        Set<T> presented = new HashSet<>();
+        List<T> added = new ArrayList<>();
         for (int i = 0; i < presentationArray.length(); i++) {
             JsonObject object = presentationArray.getObject(i);
 
             T data = comboBox.getKeyMapper().get(object.getString("key"));
-            if (data != null) {
-                result.add(data);
+            if (data != null && presented.add(data)
+                && !oldValue.contains(data)) {
+                added.add(data);
             }
         }
         // all the filtered items are removed from the key mapper
         // but should be still in the selectedItems
-        // add all old values that are not in the key mapper (filtered items)
+        // keep all old values that are not in the key mapper (filtered items)
         // if the UI is removing a item, it should be in the keymapper
-        if (comboBox.getValue() != null) {
-            for (T item : comboBox.getValue()) {
-                if (!comboBox.getKeyMapper().has(item)) {
-                    result.add(item);
-                }
+        // with a display limit, the items the client has not received
+        // cannot have been removed by the UI either
+        Set<T> displayed = comboBox.displayedSelection;
+        if (displayed != null) {
+            displayed.addAll(presented);
+            int length = presentationArray.length();
+            if (length != comboBox.selectedItemsDisplayLimit + 1
+                || !MORE_SELECTED_ITEMS_KEY.equals(presentationArray
+                    .getObject(length - 1).getString("key"))) {
+                // hidden items move up in place of the removed ones, and the
+                // "more" chip can't be removed, so the client gets the value
+                // again
+                comboBox.runBeforeClientResponse(ui -> comboBox.refreshValue());
             }
         }
+        List<T> removed = new ArrayList<>();
+        for (T item : oldValue) {
+            if (comboBox.getKeyMapper().has(item)
+                && (displayed == null || displayed.contains(item))
+                && !presented.contains(item)) {
+                removed.add(item);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            comboBox.pendingSelectionDelta = null;
+            return comboBox.getValue();
+        }
+        // only the changed items are applied, the rest of the selection is
+        // shared with the old value
+        PersistentLinkedHashSet<T> result = PersistentLinkedHashSet.copyOf(oldValue);
+        for (T item : added) {
+            result = result.with(item);
+        }
+        for (T item : removed) {
+            result = result.without(item);
+        }
+        comboBox.pendingSelectionDelta = new SelectionDelta<>(added, removed);
         return result;
     }
 
@@ -318,19 +628,39 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
 
     private static <T> JsonArray modelToPresentation(MultiComboBox<T> comboBox,
                                                      Collection<T> models, ItemLabelGenerator<T> generateLabel) {
+        int count = models == null ? 0 : models.size();
+        int limit = comboBox.selectedItemsDisplayLimit;
+        if (limit > 0 && count > limit) {
+            comboBox.displayedSelection = new HashSet<>();
+            JsonArray array = toJson(comboBox, models.stream().limit(limit),
+                generateLabel);
+            JsonObject more = Json.createObject();
+            more.put("key", MORE_SELECTED_ITEMS_KEY);
+            more.put("label",
+                comboBox.moreSelectedItemsLabelGenerator.apply(count - limit));
+            array.set(array.length(), more);
+            return array;
+        }
+        comboBox.displayedSelection = null;
         if (models == null) {
             return Json.createArray();
         }
+        return toJson(comboBox, models.stream(), generateLabel);
+    }
+
+    private static <T> JsonArray toJson(MultiComboBox<T> comboBox,
+                                        Stream<T> models, ItemLabelGenerator<T> generateLabel) {
         JsonArray array = Json.createArray();
-        int i = 0;
-        for (T model : models) {
+        models.forEach(model -> {
             JsonObject json = Json.createObject();
             String key = comboBox.getKeyMapper().key(model);
             json.put("key", key);
             json.put("label", generateLabel.apply(model));
-            array.set(i, json);
-            i++;
-        }
+            array.set(array.length(), json);
+            if (comboBox.displayedSelection != null) {
+                comboBox.displayedSelection.add(model);
+            }
+        });
         return array;
     }
 
@@ -346,36 +676,236 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
                         + "items into the ComboBox before setting a value.");
             }
         }
-        super.setValue(value);
+        super.setValue(value == null ? null : PersistentLinkedHashSet.copyOf(value));
         refreshValue();
     }
 
-    private void refreshValue() {
-        Set<T> values = getValue();
-        if (values != null) {
-            DataKeyMapper<T> keyMapper = getKeyMapper();
-            for (T value : values) {
+    /**
+     * Adds the given items to the selection. Items already selected are
+     * ignored.
+     *
+     * @param items
+     *            the items to select, not <code>null</code>
+     */
+    public void addToSelection(Collection<T> items) {
+        Objects.requireNonNull(items, "Items cannot be null");
+        Set<T> oldValue = getValue() == null ? Collections.emptySet()
+            : getValue();
+        List<T> added = items.stream().distinct()
+            .filter(item -> !oldValue.contains(item))
+            .collect(Collectors.toList());
+        if (added.isEmpty()) {
+            return;
+        }
+        PersistentLinkedHashSet<T> newValue = PersistentLinkedHashSet.copyOf(oldValue);
+        for (T item : added) {
+            newValue = newValue.with(item);
+        }
+        setValue(newValue, new SelectionDelta<>(added,
+            Collections.emptyList()));
+    }
 
-                if (value != null && keyMapper.has(value)) {
-                    value = keyMapper.get(keyMapper.key(value));
-                }
+    /**
+     * Removes the given items from the selection. Items not selected are
+     * ignored.
+     *
+     * @param items
+     *            the items to deselect, not <code>null</code>
+     */
+    public void removeFromSelection(Collection<T> items) {
+        Objects.requireNonNull(items, "Items cannot be null");
+        if (getValue() == null) {
+            return;
+        }
+        Set<T> oldValue = getValue();
+        List<T> removed = items.stream().distinct()
+            .filter(oldValue::contains).collect(Collectors.toList());
+        if (removed.isEmpty()) {
+            return;
+        }
+        PersistentLinkedHashSet<T> newValue = PersistentLinkedHashSet.copyOf(oldValue);
+        for (T item : removed) {
+            newValue = newValue.without(item);
+        }
+        setValue(newValue, new SelectionDelta<>(Collections.emptyList(),
+            removed));
+    }
 
-                if (value == null) {
-                    getElement().setProperty(PROP_SELECTED_ITEM, null);
-                    getElement().setProperty(PROP_VALUE, "");
-                    getElement().setProperty(PROP_INPUT_ELEMENT_VALUE, "");
-                    return;
-                }
+    private void setValue(Set<T> value, SelectionDelta<T> delta) {
+        pendingSelectionDelta = delta;
+        try {
+            setValue(value);
+        } finally {
+            pendingSelectionDelta = null;
+        }
+    }
+
+    /**
+     * Adds a listener for selection changes, which tells which items have
+     * been added to and removed from the selection. Unlike a value change
+     * listener, it doesn't need to compare the old and new sets.
+     *
+     * @param listener
+     *            the listener to add, not <code>null</code>
+     * @return a handle that can be used for removing the listener
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Registration addSelectionChangeListener(
+        ComponentEventListener<SelectionChangeEvent<T>> listener) {
+        return addListener(SelectionChangeEvent.class,
+            (ComponentEventListener) listener);
+    }
+
+    private void fireSelectionChange(
+        ComponentValueChangeEvent<MultiComboBox<T>, Set<T>> event) {
+        SelectionDelta<T> delta = pendingSelectionDelta;
+        pendingSelectionDelta = null;
+        if (!hasListener(SelectionChangeEvent.class)) {
+            return;
+        }
+        if (delta == null) {
+            Set<T> oldValue = event.getOldValue() == null
+                ? Collections.emptySet()
+                : event.getOldValue();
+            Set<T> newValue = event.getValue() == null
+                ? Collections.emptySet()
+                : event.getValue();
+            delta = new SelectionDelta<>(
+                newValue.stream().filter(item -> !oldValue.contains(item))
+                    .collect(Collectors.toList()),
+                oldValue.stream().filter(item -> !newValue.contains(item))
+                    .collect(Collectors.toList()));
+        }
+        fireEvent(new SelectionChangeEvent<>(this, event.isFromClient(),
+            delta.added, delta.removed));
+    }
 
-                // This ensures that the selection works even with lazy loading when the
-                // item is not yet loaded
-                JsonObject json = Json.createObject();
-                json.put("key", keyMapper.key(value));
-                dataGenerator.generateData(value, json);
-                //setSelectedItem(json);
+    @Override
+    protected boolean valueEquals(Set<T> value1, Set<T> value2) {
+        if (value1 == value2) {
+            return true;
+        }
+        if (replacingSelectedItems) {
+            // the new instances are equal to the ones they replace
+            return false;
+        }
+        if (value1 != null && value2 != null
+            && value1.size() != value2.size()) {
+            return false;
+        }
+        return super.valueEquals(value1, value2);
+    }
+
+    /**
+     * Submits a change of the selection from any thread. The items are added
+     * to and removed from the selection in one batch together with the other
+     * changes submitted before the UI applies them, which it does in a single
+     * {@link UI#access(com.vaadin.flow.server.Command)}, so the value changes
+     * and the selection is sent to the client only once per batch.
+     * <p>
+     * The changes are applied in the order they were submitted. Changes
+     * submitted while the combo box is detached are applied when it is
+     * attached again.
+     *
+     * @param addedItems
+     *            the items to add to the selection, not <code>null</code>
+     * @param removedItems
+     *            the items to remove from the selection, not
+     *            <code>null</code>
+     */
+    public void submitSelectionChange(Collection<T> addedItems,
+                                      Collection<T> removedItems) {
+        Objects.requireNonNull(addedItems, "Added items cannot be null");
+        Objects.requireNonNull(removedItems, "Removed items cannot be null");
+        List<T> added = new ArrayList<>(addedItems);
+        List<T> removed = new ArrayList<>(removedItems);
+        submittedSelectionChanges.add(selection -> {
+            for (T item : added) {
+                selection = selection.with(item);
+            }
+            for (T item : removed) {
+                selection = selection.without(item);
+            }
+            return selection;
+        });
+        scheduleSubmittedUpdates();
+    }
+
+    /**
+     * Submits a refresh of the given item from any thread. The refresh is
+     * applied in the next batch of submitted updates, see
+     * {@link #submitSelectionChange(Collection, Collection)}.
+     *
+     * @param item
+     *            the item to refresh, not <code>null</code>
+     */
+    public void submitRefresh(T item) {
+        Objects.requireNonNull(item, "Item cannot be null");
+        submittedRefreshes.add(item);
+        scheduleSubmittedUpdates();
+    }
+
+    /**
+     * Submits a refresh of all the items from any thread. The refresh is
+     * applied in the next batch of submitted updates, see
+     * {@link #submitSelectionChange(Collection, Collection)}.
+     */
+    public void submitRefreshAll() {
+        submittedRefreshAll.set(true);
+        scheduleSubmittedUpdates();
+    }
+
+    private void scheduleSubmittedUpdates() {
+        UI ui = attachedUi;
+        if (ui == null || !submittedUpdatesScheduled.compareAndSet(false,
+            true)) {
+            return;
+        }
+        try {
+            ui.access(this::applySubmittedUpdates);
+        } catch (UIDetachedException e) {
+            // applied on the next attach
+            submittedUpdatesScheduled.set(false);
+        }
+    }
 
+    private void applySubmittedUpdates() {
+        submittedUpdatesScheduled.set(false);
+        if (dataCommunicator == null) {
+            // no items to select yet
+            return;
+        }
+        PersistentLinkedHashSet<T> selection = null;
+        SerializableFunction<PersistentLinkedHashSet<T>, PersistentLinkedHashSet<T>> change;
+        while ((change = submittedSelectionChanges.poll()) != null) {
+            if (selection == null) {
+                // keeps the insertion order of the current selection
+                selection = getValue() == null ? PersistentLinkedHashSet.empty()
+                    : PersistentLinkedHashSet.copyOf(getValue());
+            }
+            selection = change.apply(selection);
+        }
+        if (selection != null && !selection.equals(getValue())) {
+            setValue(selection);
+        }
+        DataProvider<T, ?> dataProvider = getDataProvider();
+        if (submittedRefreshAll.getAndSet(false)) {
+            submittedRefreshes.clear();
+            if (dataProvider != null) {
+                dataProvider.refreshAll();
+            }
+        } else {
+            T item;
+            while ((item = submittedRefreshes.poll()) != null) {
+                if (dataProvider != null) {
+                    dataProvider.refreshItem(item);
+                }
             }
         }
+    }
+
+    private void refreshValue() {
+        Set<T> values = getValue();
         getElement().setPropertyJson(PROP_VALUE, modelToPresentation(this, values, this::generateLabel));
         // refresh the label if closed
         if (!isOpened()) {
@@ -389,6 +919,11 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
      * the list of possible choices of the ComboBox. It doesn't affect how the
      * selected item is rendered - that can be configured by using
      * {@link #setItemLabelGenerator(ItemLabelGenerator)}.
+     * <p>
+     * A {@link LitRenderer} is set once as the renderer function of the
+     * component, and the items only carry the properties of its template.
+     * Changing it regenerates the data of the items currently shown, without
+     * resetting the client.
      *
      * @param renderer
      *            a renderer for the items in the selection list of the
@@ -402,7 +937,7 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         Objects.requireNonNull(renderer, "The renderer must not be null");
         this.renderer = renderer;
 
-        if (template == null) {
+        if (template == null && !(renderer instanceof LitRenderer)) {
             template = new Element("template");
             getElement().appendChild(template);
         }
@@ -430,7 +965,87 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
      */
     @Override
     public void setItems(Collection<T> items) {
-        setDataProvider(DataProvider.ofCollection(items));
+        setDataProvider(createListDataProvider(items));
+    }
+
+    /**
+     * Replaces the items of this combo box with the given ones, keeping the
+     * value and the data already sent to the client. The items are matched
+     * with the current ones by the id of the data provider: selected items
+     * that are removed are deselected, and selected items that are replaced
+     * by a new instance are replaced in the value as well. If only existing
+     * items changed, just these are refreshed, otherwise the item count and
+     * the currently shown range are sent again.
+     * <p>
+     * If the current items were not set with {@link #setItems(Collection)}
+     * or {@link #setItems(ItemFilter, Collection)}, this is the same as
+     * {@link #setItems(Collection)}.
+     *
+     * @param items
+     *            the new data items, not <code>null</code>
+     */
+    public void updateItems(Collection<T> items) {
+        Objects.requireNonNull(items, "Items cannot be null");
+        if (!(getDataProvider() instanceof IndexedListDataProvider)) {
+            setItems(items);
+            return;
+        }
+        // created by setItems from items of this combo box, so of type T
+        @SuppressWarnings("unchecked")
+        IndexedListDataProvider<T> dataProvider = (IndexedListDataProvider<T>) getDataProvider();
+        Collection<T> oldItems = dataProvider.getItems();
+        Map<Object, T> removed = new LinkedHashMap<>();
+        List<Object> oldIds = new ArrayList<>(oldItems.size());
+        for (T item : oldItems) {
+            Object id = dataProvider.getId(item);
+            removed.put(id, item);
+            oldIds.add(id);
+        }
+        Map<Object, T> changed = new LinkedHashMap<>();
+        boolean sameOrder = oldItems.size() == items.size();
+        int position = 0;
+        for (T item : items) {
+            Object id = dataProvider.getId(item);
+            T oldItem = removed.remove(id);
+            if (oldItem != null && oldItem != item) {
+                changed.put(id, item);
+            }
+            sameOrder = sameOrder && oldIds.get(position).equals(id);
+            position++;
+        }
+        dataProvider.replaceItems(items);
+
+        Set<T> value = getValue();
+        if (value != null && (!removed.isEmpty() || !changed.isEmpty())) {
+            PersistentLinkedHashSet<T> newValue = PersistentLinkedHashSet.copyOf(value);
+            for (T selected : value) {
+                Object id = dataProvider.getId(selected);
+                if (removed.containsKey(id)) {
+                    newValue = newValue.without(selected);
+                } else if (changed.containsKey(id)) {
+                    newValue = newValue.without(selected)
+                        .with(changed.get(id));
+                }
+            }
+            if (newValue != value) {
+                replacingSelectedItems = true;
+                try {
+                    setValue(newValue);
+                } finally {
+                    replacingSelectedItems = false;
+                }
+            }
+        }
+
+        if (sameOrder) {
+            changed.values().forEach(dataCommunicator::refresh);
+        } else {
+            // resend the size and the requested range, without resetting
+            // the client
+            setClientSideFilter(!shouldForceServerSideFiltering
+                && dataProvider.size(new Query<>()) <= getPageSizeDouble());
+            dataCommunicator.reset();
+        }
     }
 
     /**
@@ -455,9 +1070,40 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
      *            the data items to display
      */
     public void setItems(ItemFilter<T> itemFilter, Collection<T> items) {
-        ListDataProvider<T> listDataProvider = DataProvider.ofCollection(items);
+        setDataProvider(itemFilter, createListDataProvider(items));
+    }
+
+    /**
+     * Sets the data items of this combo box and a compiling filter for
+     * defining which items are displayed when user types into the combo box.
+     * The filter text is compiled once per change into a matcher, which is
+     * then applied to the items.
+     * <p>
+     * Note that defining a custom filter will force the component to make
+     * server roundtrips to handle the filtering. Otherwise it can handle
+     * filtering in the client-side, if the size of the data set is less than
+     * the {@link #setPageSize(int) pageSize}.
+     * <p>
+     * Setting the items creates a new DataProvider, which in turn resets the
+     * combo box's value to {@code null}.
+     *
+     * @param itemFilter
+     *            filter compiling the text typed into the ComboBox into a
+     *            matcher for the items
+     * @param items
+     *            the data items to display
+     * @see ItemFilters
+     */
+    public void setItems(CompilingItemFilter<T> itemFilter,
+                         Collection<T> items) {
+        setDataProvider(itemFilter, createListDataProvider(items));
+    }
 
-        setDataProvider(itemFilter, listDataProvider);
+    private ListDataProvider<T> createListDataProvider(Collection<T> items) {
+        IndexedListDataProvider<T> listDataProvider = new IndexedListDataProvider<>(
+            items);
+        listDataProvider.setParallelThreshold(parallelFilteringThreshold);
+        return listDataProvider;
     }
 
     /**
@@ -536,10 +1182,29 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         }
 
         if (dataCommunicator == null) {
-            dataCommunicator = new DataCommunicator<>(dataGenerator,
+            dataCommunicator = new DataCommunicator<>(rowDataGenerator,
                 arrayUpdater, data -> getElement()
                 .callJsFunction("$connector.updateData", data),
-                getElement().getNode());
+                getElement().getNode()) {
+                {
+                    setKeyMapper(itemKeyMapper);
+                }
+
+                @Override
+                protected Stream<T> fetchFromProvider(int offset, int limit) {
+                    PageSizeTuner tuner = pageSizeTuner;
+                    if (tuner == null) {
+                        return super.fetchFromProvider(offset, limit);
+                    }
+                    long start = System.nanoTime();
+                    List<T> items = super.fetchFromProvider(offset, limit)
+                        .collect(Collectors.toList());
+                    tuner.recordFetch(items.size(), System.nanoTime() - start);
+                    return items.stream();
+                }
+            };
+            dataCommunicator.setPageSize(
+                getDataCommunicatorPageSize(getPageSize()));
         }
 
         scheduleRender();
@@ -556,6 +1221,12 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         SerializableConsumer<C> providerFilterSlot = dataCommunicator
             .setDataProvider(dataProvider,
                 convertOrNull.apply(getFilterString()));
+        // the size of a provider without a count callback is never asked
+        // for, setting the data provider made the size defined again
+        if (undefinedSize) {
+            dataCommunicator.setDefinedSize(false);
+            undefinedSize = false;
+        }
 
         filterSlot = filter -> {
             if (!Objects.equals(filter, lastFilter)) {
@@ -571,40 +1242,145 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
     }
 
     private <C> void setupDataProviderListener(DataProvider<T, C> dataProvider) {
+        pendingRefreshAll = false;
+        pendingItemRefreshes.clear();
+        addDataChangeListener(dataProvider);
+        refreshAllData(shouldForceServerSideFiltering);
+    }
+
+    private <C> void addDataChangeListener(DataProvider<T, C> dataProvider) {
         if (dataProviderListener != null) {
+            if (dataProviderListener.reuse(this, dataProvider)) {
+                return;
+            }
             dataProviderListener.remove();
         }
-        dataProviderListener = dataProvider.addDataProviderListener(e -> {
-            if (e instanceof DataChangeEvent.DataRefreshEvent) {
-                dataCommunicator.refresh(((DataChangeEvent.DataRefreshEvent<T>) e).getItem());
-            } else {
-                refreshAllData(shouldForceServerSideFiltering);
+        dataProviderListener = new DataChangeListener<>(this, dataProvider);
+    }
+
+    private void onDataChange(DataChangeEvent<T> event) {
+        if (event instanceof DataChangeEvent.DataRefreshEvent) {
+            if (!pendingRefreshAll) {
+                T item = ((DataChangeEvent.DataRefreshEvent<T>) event)
+                    .getItem();
+                pendingItemRefreshes.put(event.getSource().getId(item), item);
             }
-        });
-        refreshAllData(shouldForceServerSideFiltering);
+        } else {
+            // refreshing everything makes the item refreshes redundant
+            pendingRefreshAll = true;
+            pendingItemRefreshes.clear();
+        }
+        scheduleDataChangeFlush();
+    }
+
+    /**
+     * Data provider listener of the combo box. The registration is not
+     * serialized: it is a lambda referring back to the listener through the
+     * data provider, and such a cycle can't be deserialized. A deserialized
+     * listener is still registered to the deserialized data provider, so it
+     * keeps forwarding the events and is reused when the combo box is
+     * attached again. Once removed, it unregisters itself on the next event.
+     */
+    private static final class DataChangeListener<T>
+        implements DataProviderListener<T> {
+        private MultiComboBox<T> comboBox;
+        private final DataProvider<T, ?> dataProvider;
+        private transient Registration registration;
+        private boolean registered;
+
+        private DataChangeListener(MultiComboBox<T> comboBox,
+                                   DataProvider<T, ?> dataProvider) {
+            this.comboBox = comboBox;
+            this.dataProvider = dataProvider;
+            registration = dataProvider.addDataProviderListener(this);
+            registered = true;
+        }
+
+        @Override
+        public void onDataChange(DataChangeEvent<T> event) {
+            if (comboBox != null) {
+                comboBox.onDataChange(event);
+            } else if (registered) {
+                registered = false;
+                try {
+                    event.unregisterListener();
+                } catch (IllegalStateException e) {
+                    // the data provider doesn't support it, the listener
+                    // stays registered but doesn't forward the events
+                }
+            }
+        }
+
+        private boolean reuse(MultiComboBox<T> comboBox,
+                              DataProvider<T, ?> dataProvider) {
+            if (!registered || this.dataProvider != dataProvider) {
+                return false;
+            }
+            this.comboBox = comboBox;
+            return true;
+        }
+
+        private boolean isForwarding() {
+            return comboBox != null;
+        }
+
+        private void remove() {
+            if (registration != null) {
+                registration.remove();
+                registration = null;
+                registered = false;
+            }
+            comboBox = null;
+        }
+    }
+
+    private void scheduleDataChangeFlush() {
+        if (dataChangeFlushScheduled) {
+            return;
+        }
+        dataChangeFlushScheduled = true;
+        runBeforeClientResponse(ui -> flushDataChanges());
+    }
+
+    private void flushDataChanges() {
+        dataChangeFlushScheduled = false;
+        if (pendingRefreshAll) {
+            pendingRefreshAll = false;
+            pendingItemRefreshes.clear();
+            refreshAllData(shouldForceServerSideFiltering);
+        } else if (!pendingItemRefreshes.isEmpty()) {
+            List<T> items = new ArrayList<>(pendingItemRefreshes.values());
+            pendingItemRefreshes.clear();
+            items.forEach(dataCommunicator::refresh);
+        }
     }
 
     @Override
     protected void onAttach(AttachEvent attachEvent) {
         super.onAttach(attachEvent);
         DataProvider<T, ?> dataProvider = getDataProvider();
-        if (dataProvider != null && dataProviderListener == null) {
+        if (dataProvider != null && (dataProviderListener == null
+            || !dataProviderListener.isForwarding())) {
             setupDataProviderListener(dataProvider);
         }
+        attachedUi = attachEvent.getUI();
+        // apply the updates submitted while detached
+        applySubmittedUpdates();
     }
 
     @Override
     protected void onDetach(DetachEvent detachEvent) {
+        attachedUi = null;
         if (dataProviderListener != null) {
             dataProviderListener.remove();
-            dataProviderListener = null;
         }
         super.onDetach(detachEvent);
     }
 
     private void refreshAllData(boolean forceServerSideFiltering) {
-        setClientSideFilter(!forceServerSideFiltering && getDataProvider()
-            .size(new Query<>()) <= getPageSizeDouble());
+        setClientSideFilter(!forceServerSideFiltering
+            && dataCommunicator.isDefinedSize()
+            && getDataProvider().size(new Query<>()) <= getPageSizeDouble());
 
         reset();
     }
@@ -635,9 +1411,13 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
 
         // Cannot use the case insensitive contains shorthand from
         // ListDataProvider since it wouldn't react to locale changes
-        ItemFilter<T> defaultItemFilter = (item,
-                                                    filterText) -> generateLabel(item).toLowerCase(getLocale())
-            .contains(filterText.toLowerCase(getLocale()));
+        CompilingItemFilter<T> defaultItemFilter = ItemFilters
+            .monotonic(filterText -> {
+                Locale locale = getLocale();
+                String lowerCaseFilterText = filterText.toLowerCase(locale);
+                return item -> generateLabel(item).toLowerCase(locale)
+                    .contains(lowerCaseFilterText);
+            });
 
         setDataProvider(defaultItemFilter, listDataProvider);
     }
@@ -668,6 +1448,197 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
             q -> sizeCallback.apply(q.getFilter().orElse(""))));
     }
 
+    /**
+     * Sets a data provider using a single callback which returns both a page
+     * of items and the total count.
+     * <p>
+     * When the user types a new filter, the combo box needs the count and
+     * the first page: both are taken from one call of the callback, so a
+     * backend can answer them in a single round trip, for instance with a
+     * {@code COUNT(*) OVER()} window function. The count returned for the
+     * following pages is not used.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param fetchPage
+     *            a callback for fetching a page of items and the count
+     * @see ItemPage
+     */
+    public void setDataProviderWithCount(FetchPageCallback<T> fetchPage) {
+        Objects.requireNonNull(fetchPage, "Fetch callback cannot be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(new PageAndCountDataProvider<>(fetchPage,
+            () -> dataCommunicator.getPageSize()));
+    }
+
+    /**
+     * Sets a data provider which lists the selected items first, using the
+     * given callbacks to fetch and count the other items.
+     * <p>
+     * The selected items matching the filter are served from the server-side
+     * selection and the callbacks are asked for the rest of the items, with
+     * the selected ones excluded, for instance with
+     * {@code WHERE id NOT IN (...)}. The backend doesn't need to sort by
+     * selection. Like with in-memory items, the order is updated when the
+     * drop-down is closed.
+     * <p>
+     * The selected items are matched to the filter with a case insensitive
+     * match of the filter text in their label, see
+     * {@link #setDataProviderSelectedFirst(ExcludingFetchItemsCallback, SerializableBiFunction, ItemFilter)}
+     * to use the same matching as the backend.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param fetchItems
+     *            a callback for fetching the items which are not selected
+     * @param sizeCallback
+     *            a callback for counting the items which are not selected,
+     *            given the filter and the selected items
+     */
+    public void setDataProviderSelectedFirst(ExcludingFetchItemsCallback<T> fetchItems,
+                                             SerializableBiFunction<String, Set<T>, Integer> sizeCallback) {
+        setDataProviderSelectedFirst(fetchItems, sizeCallback,
+            (item, filterText) -> generateLabel(item).toLowerCase(getLocale())
+                .contains(filterText.toLowerCase(getLocale())));
+    }
+
+    /**
+     * Sets a data provider which lists the selected items first, using the
+     * given callbacks to fetch and count the other items.
+     * <p>
+     * The selected items matching the filter, according to the given item
+     * filter, are served from the server-side selection and the callbacks are
+     * asked for the rest of the items, with the selected ones excluded. The
+     * item filter should match the items like the backend does.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param fetchItems
+     *            a callback for fetching the items which are not selected
+     * @param sizeCallback
+     *            a callback for counting the items which are not selected,
+     *            given the filter and the selected items
+     * @param selectedItemFilter
+     *            filter to check if a selected item is shown when user typed
+     *            some text into the ComboBox
+     */
+    public void setDataProviderSelectedFirst(ExcludingFetchItemsCallback<T> fetchItems,
+                                             SerializableBiFunction<String, Set<T>, Integer> sizeCallback,
+                                             ItemFilter<T> selectedItemFilter) {
+        Objects.requireNonNull(fetchItems, "Fetch callback cannot be null");
+        Objects.requireNonNull(sizeCallback, "Size callback cannot be null");
+        Objects.requireNonNull(selectedItemFilter,
+            "Selected item filter cannot be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(new SelectedFirstDataProvider<>(fetchItems,
+            sizeCallback, this::getValue, selectedItemFilter));
+    }
+
+    /**
+     * Sets a data provider using the given keyset pagination callback and a
+     * size callback.
+     * <p>
+     * The combo box remembers, per filter, the sort key of the last item of
+     * each fetched page. When the next page is requested, the callback
+     * receives that key and can continue the query from it, for instance with
+     * {@code WHERE sort_key > ? ORDER BY sort_key LIMIT ?}, which keeps the
+     * query cost independent of how far the user has scrolled. Pages whose
+     * preceding key is not known, for instance after jumping in the list,
+     * receive a {@code null} key and should be fetched by offset.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param fetchItems
+     *            a callback for fetching items
+     * @param sortKeyProvider
+     *            gives the sort key of an item, matching the order of the
+     *            fetched items
+     * @param sizeCallback
+     *            a callback for getting the count of items
+     * @param <K>
+     *            the sort key type
+     */
+    public <K> void setDataProvider(SeekFetchItemsCallback<T, K> fetchItems,
+                                    SerializableFunction<T, K> sortKeyProvider,
+                                    SerializableFunction<String, Integer> sizeCallback) {
+        Objects.requireNonNull(fetchItems, "Fetch callback cannot be null");
+        Objects.requireNonNull(sortKeyProvider,
+            "Sort key provider cannot be null");
+        Objects.requireNonNull(sizeCallback, "Size callback cannot be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(new KeysetCallbackDataProvider<>(fetchItems,
+            sortKeyProvider, sizeCallback));
+    }
+
+    /**
+     * Sets a CallbackDataProvider using only the given fetch items callback,
+     * without ever counting the items.
+     * <p>
+     * The number of items is unknown: the combo box starts with an estimated
+     * size, which grows as the user scrolls and is fixed once the callback
+     * returns fewer items than requested. Use this when counting the items
+     * costs more than fetching them.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param fetchItems
+     *            a callback for fetching items
+     * @see #setDataProvider(FetchItemsCallback, SerializableFunction)
+     */
+    public void setDataProvider(FetchItemsCallback<T> fetchItems) {
+        Objects.requireNonNull(fetchItems, "Fetch callback cannot be null");
+        userProvidedFilter = UserProvidedFilter.YES;
+        undefinedSize = true;
+        setDataProvider(new CallbackDataProvider<>(
+            q -> fetchItems.fetchItems(q.getFilter().orElse(""),
+                q.getOffset(), q.getLimit()),
+            q -> {
+                throw new IllegalStateException(
+                    "The data provider set with only a fetch items callback "
+                        + "can't count the items. Use setDataProvider("
+                        + "FetchItemsCallback, SerializableFunction) to "
+                        + "provide a count callback.");
+            }));
+    }
+
+    /**
+     * Sets a data provider using the given fetch items callback and a size
+     * callback, caching their results per filter.
+     * <p>
+     * Typing a filter which has already been queried is answered from the
+     * cache. The cache keeps at most {@code maxCachedQueries} results, each
+     * for {@code timeToLive}, and it's cleared by
+     * {@code getDataProvider().refreshAll()}. The hit rate can be read from
+     * the {@link CachingCallbackDataProvider} returned by
+     * {@link #getDataProvider()}.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param fetchItems
+     *            a callback for fetching items
+     * @param sizeCallback
+     *            a callback for getting the count of items
+     * @param maxCachedQueries
+     *            the maximum number of cached results, should be greater
+     *            than zero
+     * @param timeToLive
+     *            how long a cached result is used, not <code>null</code>
+     * @see CachingCallbackDataProvider
+     */
+    public void setDataProvider(FetchItemsCallback<T> fetchItems,
+                                SerializableFunction<String, Integer> sizeCallback,
+                                int maxCachedQueries, Duration timeToLive) {
+        userProvidedFilter = UserProvidedFilter.YES;
+        setDataProvider(new CachingCallbackDataProvider<>(fetchItems,
+            sizeCallback, maxCachedQueries, timeToLive));
+    }
+
     /**
      * Sets a list data provider with an item filter as the data provider of
      * this combo box. The item filter is used to compare each item to the
@@ -678,6 +1649,9 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
      * filtering in the client-side, if the size of the data set is less than
      * the {@link #setPageSize(int) pageSize}.
      * <p>
+     * With an {@link IndexedListDataProvider}, the items matching a filter
+     * are resolved once and the pages are sliced from that result.
+     * <p>
      * Changing the combo box's data provider resets its current value to
      * {@code null}.
      *
@@ -689,27 +1663,226 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
      */
     public void setDataProvider(ItemFilter<T> itemFilter,
                                 ListDataProvider<T> listDataProvider) {
+        Objects.requireNonNull(itemFilter, "Item filter cannot be null");
+        CompilingItemFilter<T> compilingItemFilter = filterText -> item -> itemFilter
+            .test(item, filterText);
+        setDataProvider(itemFilter.isMonotonic()
+            ? ItemFilters.monotonic(compilingItemFilter)
+            : compilingItemFilter, listDataProvider);
+    }
+
+    /**
+     * Sets a list data provider with a compiling item filter as the data
+     * provider of this combo box. The item filter turns the filter text
+     * entered by the user into a matcher once, and the matcher is then used
+     * for each item until the filter text changes.
+     * <p>
+     * Note that defining a custom filter will force the component to make
+     * server roundtrips to handle the filtering. Otherwise it can handle
+     * filtering in the client-side, if the size of the data set is less than
+     * the {@link #setPageSize(int) pageSize}.
+     * <p>
+     * The sort comparator of the list data provider is replaced with one
+     * listing the selected items of this combo box first, so the provider
+     * should not be shared with other combo boxes.
+     * <p>
+     * Changing the combo box's data provider resets its current value to
+     * {@code null}.
+     *
+     * @param itemFilter
+     *            filter compiling the text typed into the ComboBox into a
+     *            matcher for the items
+     * @param listDataProvider
+     *            the list data provider to use, not <code>null</code>
+     * @see ItemFilters
+     */
+    public void setDataProvider(CompilingItemFilter<T> itemFilter,
+                                ListDataProvider<T> listDataProvider) {
+        Objects.requireNonNull(itemFilter, "Item filter cannot be null");
         Objects.requireNonNull(listDataProvider,
             "List data provider cannot be null");
 
-        SerializableComparator<T> tSerializableComparator = (t1, t2) -> {
-            if (getValue() == null) {
-                return 0;
-            }
-            if (getValue().contains(t1)) {
-                if (!getValue().contains(t2)) {
-                    return -1;
-                }
-            } else {
-                if (getValue().contains(t2)) {
-                    return 1;
-                }
+        listDataProvider.setSortComparator(
+            new SelectionFirstComparator<>(this::getValue));
+        setDataProvider(listDataProvider,
+            filterText -> new ItemFilterPredicate<>(itemFilter, filterText));
+    }
+
+    /**
+     * Sets whether the keys of the items sent to the client are derived from
+     * the item ids of the data provider. With stable keys an item keeps its
+     * key after the data is reset, for instance when the page size, the item
+     * label generator or the renderer changes. Only the items with an id of
+     * their own, given by the data provider's {@code getId}, get a key
+     * derived from it; the others get generated keys.
+     * <p>
+     * A client which keeps its rows over resets tells so with
+     * {@code $server.setCachedRows({key: version})}, first with no rows. From
+     * then on, every item carries a version of its content in the
+     * {@code version} property, the client can report the versions it has,
+     * and the rows which didn't change are sent with only their key and
+     * version.
+     * <p>
+     * Changing this only affects the items that get a new key afterwards.
+     * The default is <code>false</code>.
+     *
+     * @param stableItemKeys
+     *            <code>true</code> to derive the keys from the item ids,
+     *            <code>false</code> to generate them
+     */
+    public void setStableItemKeys(boolean stableItemKeys) {
+        itemKeyMapper.setStableKeys(stableItemKeys);
+        if (!stableItemKeys) {
+            clientRowVersions = null;
+        }
+    }
+
+    /**
+     * Gets whether the keys of the items sent to the client are derived from
+     * the item ids of the data provider.
+     *
+     * @return <code>true</code> if the keys are derived from the item ids
+     * @see #setStableItemKeys(boolean)
+     */
+    public boolean isStableItemKeys() {
+        return itemKeyMapper.isStableKeys();
+    }
+
+    @ClientCallable
+    private void setCachedRows(JsonObject rowVersions) {
+        if (!itemKeyMapper.isStableKeys()) {
+            return;
+        }
+        clientRowVersions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, String> eldest) {
+                return size() > MAX_CLIENT_ROW_VERSIONS;
             }
-            return 0;
         };
-        listDataProvider.setSortComparator(tSerializableComparator);
-        setDataProvider(listDataProvider,
-            filterText -> item -> itemFilter.test(item, filterText));
+        for (String key : rowVersions.keys()) {
+            clientRowVersions.put(key, rowVersions.getString(key));
+        }
+    }
+
+    private JsonValue skipCachedRow(JsonValue row) {
+        if (clientRowVersions == null || !(row instanceof JsonObject)
+            || !((JsonObject) row).hasKey(ROW_VERSION)) {
+            return row;
+        }
+        JsonObject json = (JsonObject) row;
+        String key = json.getString("key");
+        String version = json.getString(ROW_VERSION);
+        if (!version.equals(clientRowVersions.put(key, version))) {
+            return row;
+        }
+        // the client has this row already
+        JsonObject unchanged = Json.createObject();
+        unchanged.put("key", key);
+        unchanged.put(ROW_VERSION, version);
+        return unchanged;
+    }
+
+    /**
+     * Sets the minimum length of the filter text before the items are
+     * queried with it. While a shorter, non-empty filter is typed, the data
+     * provider is not called and the client shows no items.
+     * <p>
+     * The default is 0, which queries every filter.
+     *
+     * @param minimumFilterLength
+     *            the minimum number of characters in a filter, not negative
+     */
+    public void setMinimumFilterLength(int minimumFilterLength) {
+        if (minimumFilterLength < 0) {
+            throw new IllegalArgumentException(
+                "Minimum filter length should not be negative.");
+        }
+        this.minimumFilterLength = minimumFilterLength;
+    }
+
+    /**
+     * Gets the minimum length of the filter text before the items are
+     * queried with it.
+     *
+     * @return the minimum number of characters in a filter
+     */
+    public int getMinimumFilterLength() {
+        return minimumFilterLength;
+    }
+
+    /**
+     * Sets the minimum time between two filter changes applied on the
+     * server. A filter typed sooner than that after the previous one is
+     * applied when the time has passed, and filters typed in between are
+     * skipped, and the delayed items are pushed to the client.
+     * <p>
+     * The debounce needs server push, without it every filter is applied
+     * immediately.
+     * <p>
+     * The default is {@link Duration#ZERO}, which applies every filter
+     * immediately.
+     *
+     * @param filterDebounce
+     *            the minimum time between two filter changes, not
+     *            <code>null</code> or negative
+     */
+    public void setFilterDebounce(Duration filterDebounce) {
+        Objects.requireNonNull(filterDebounce,
+            "Filter debounce cannot be null");
+        if (filterDebounce.isNegative()) {
+            throw new IllegalArgumentException(
+                "Filter debounce should not be negative.");
+        }
+        this.filterDebounce = filterDebounce;
+    }
+
+    /**
+     * Gets the minimum time between two filter changes applied on the
+     * server.
+     *
+     * @return the minimum time between two filter changes
+     */
+    public Duration getFilterDebounce() {
+        return filterDebounce;
+    }
+
+    /**
+     * Sets the number of items from which the in-memory filtering of the
+     * items given to {@link #setItems(Collection)} or
+     * {@link #setItems(ItemFilter, Collection)} runs in parallel, in a thread
+     * pool dedicated to combo boxes. The item filter and the sort comparator
+     * then run outside of the request thread, without
+     * {@code UI.getCurrent()} and {@code VaadinSession.getCurrent()}.
+     * <p>
+     * The default threshold is
+     * {@value IndexedListDataProvider#DEFAULT_PARALLEL_THRESHOLD}.
+     *
+     * @param parallelFilteringThreshold
+     *            the minimum number of items for parallel filtering, should be
+     *            greater than zero
+     * @see IndexedListDataProvider
+     */
+    public void setParallelFilteringThreshold(int parallelFilteringThreshold) {
+        if (parallelFilteringThreshold < 1) {
+            throw new IllegalArgumentException(
+                "Parallel filtering threshold should be greater than zero.");
+        }
+        this.parallelFilteringThreshold = parallelFilteringThreshold;
+        if (getDataProvider() instanceof IndexedListDataProvider) {
+            ((IndexedListDataProvider<?>) getDataProvider())
+                .setParallelThreshold(parallelFilteringThreshold);
+        }
+    }
+
+    /**
+     * Gets the number of items from which the in-memory filtering runs in
+     * parallel.
+     *
+     * @return the minimum number of items for parallel filtering
+     */
+    public int getParallelFilteringThreshold() {
+        return parallelFilteringThreshold;
     }
 
     /**
@@ -738,6 +1911,10 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         Objects.requireNonNull(itemLabelGenerator,
             "The item label generator can not be null");
         this.itemLabelGenerator = itemLabelGenerator;
+        // the filters match the labels
+        if (getDataProvider() instanceof IndexedListDataProvider) {
+            ((IndexedListDataProvider<?>) getDataProvider()).clearIndexCache();
+        }
         reset();
         if (getValue() != null) {
             refreshValue();
@@ -767,21 +1944,85 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
      * Setting the page size after the ComboBox has been rendered effectively
      * resets the component, and the current page(s) and sent over again.
      * <p>
-     * The default page size is 50.
+     * The default page size is 50. Setting the page size turns off the
+     * adaptive page size.
      *
      * @param pageSize
      *            the maximum number of items sent per request, should be
      *            greater than zero
+     * @see #setAdaptivePageSize(int, int, Duration, int)
      */
     public void setPageSize(int pageSize) {
         if (pageSize < 1) {
             throw new IllegalArgumentException(
                 "Page size should be greater than zero.");
         }
+        pageSizeTuner = null;
+        applyPageSize(pageSize);
+    }
+
+    private void applyPageSize(int pageSize) {
         super.setPageSize(pageSize);
+        if (dataCommunicator != null) {
+            dataCommunicator.setPageSize(getDataCommunicatorPageSize(pageSize));
+        }
         reset();
     }
 
+    private static int getDataCommunicatorPageSize(int pageSize) {
+        // with client-side filtering the page size is unbounded, ten such
+        // pages would overflow
+        return Math.min(pageSize, MAX_DATA_COMMUNICATOR_PAGE_SIZE);
+    }
+
+    /**
+     * Makes the page size follow the measured cost of the items. The time
+     * the data provider takes to fetch the items and the size of the items
+     * sent to the client are measured, and the page size is set to the
+     * largest one whose fetch fits in the latency budget and whose items fit
+     * in the byte budget, within the given bounds. The page size is adjusted
+     * when the overlay closes, so the items shown don't get reset.
+     * <p>
+     * Setting a fixed page size with {@link #setPageSize(int)} turns off the
+     * adaptive page size.
+     *
+     * @param minPageSize
+     *            the smallest page size, greater than zero
+     * @param maxPageSize
+     *            the largest page size, not smaller than the smallest
+     * @param latencyBudget
+     *            the time fetching a page may take, not <code>null</code>
+     * @param byteBudget
+     *            the number of bytes the items of a page may take when sent
+     *            to the client, greater than zero
+     */
+    public void setAdaptivePageSize(int minPageSize, int maxPageSize,
+                                    Duration latencyBudget, int byteBudget) {
+        pageSizeTuner = new PageSizeTuner(minPageSize, maxPageSize,
+            latencyBudget, byteBudget);
+        applyTunedPageSize();
+    }
+
+    /**
+     * Tells whether the page size follows the measured cost of the items.
+     *
+     * @return <code>true</code> if the page size is adaptive
+     * @see #setAdaptivePageSize(int, int, Duration, int)
+     */
+    public boolean isAdaptivePageSize() {
+        return pageSizeTuner != null;
+    }
+
+    private void applyTunedPageSize() {
+        if (pageSizeTuner == null) {
+            return;
+        }
+        int pageSize = pageSizeTuner.getPageSize(getPageSize());
+        if (pageSize != getPageSize()) {
+            applyPageSize(pageSize);
+        }
+    }
+
     /**
      * Gets the page size, which is the number of items fetched at a time from
      * the data provider.
@@ -798,6 +2039,59 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         return getElement().getProperty("pageSize", 50);
     }
 
+    /**
+     * Sets the maximum number of selected items sent to the client with the
+     * value. When more items are selected, the client receives the items
+     * selected first and one more chip standing for the rest, labelled "+k
+     * more" by default. The other selected items are still listed, first,
+     * in the drop-down, where they can be unselected.
+     * <p>
+     * The default is 0, which sends all the selected items.
+     *
+     * @param selectedItemsDisplayLimit
+     *            the maximum number of selected items sent with the value, or
+     *            0 for no limit
+     */
+    public void setSelectedItemsDisplayLimit(int selectedItemsDisplayLimit) {
+        if (selectedItemsDisplayLimit < 0) {
+            throw new IllegalArgumentException(
+                "Display limit should not be negative.");
+        }
+        this.selectedItemsDisplayLimit = selectedItemsDisplayLimit;
+        if (getValue() != null) {
+            refreshValue();
+        }
+    }
+
+    /**
+     * Gets the maximum number of selected items sent to the client with the
+     * value.
+     *
+     * @return the maximum number of selected items sent with the value, or 0
+     *         if there is no limit
+     */
+    public int getSelectedItemsDisplayLimit() {
+        return selectedItemsDisplayLimit;
+    }
+
+    /**
+     * Sets the generator of the label of the chip standing for the selected
+     * items past the display limit, given their number.
+     *
+     * @param moreSelectedItemsLabelGenerator
+     *            gives the label for the number of selected items not shown,
+     *            not <code>null</code>
+     * @see #setSelectedItemsDisplayLimit(int)
+     */
+    public void setMoreSelectedItemsLabelGenerator(SerializableFunction<Integer, String> moreSelectedItemsLabelGenerator) {
+        this.moreSelectedItemsLabelGenerator = Objects.requireNonNull(
+            moreSelectedItemsLabelGenerator,
+            "The label generator cannot be null");
+        if (getValue() != null) {
+            refreshValue();
+        }
+    }
+
     @Override
     public void setOpened(boolean opened) {
         super.setOpened(opened);
@@ -970,6 +2264,19 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         return null;
     }
 
+    /**
+     * Gets the selected items, in the order they were selected. The set is
+     * immutable, change the selection with {@link #setValue(Set)},
+     * {@link #addToSelection(Collection)} or
+     * {@link #removeFromSelection(Collection)}.
+     *
+     * @return the selected items, may be <code>null</code>
+     */
+    @Override
+    public Set<T> getValue() {
+        return super.getValue();
+    }
+
     @Override
     public void setRequiredIndicatorVisible(boolean requiredIndicatorVisible) {
         super.setRequiredIndicatorVisible(requiredIndicatorVisible);
@@ -1030,38 +2337,199 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         }
         renderScheduled = true;
         runBeforeClientResponse(ui -> {
+            renderScheduled = false;
             if (dataGeneratorRegistration != null) {
                 dataGeneratorRegistration.remove();
                 dataGeneratorRegistration = null;
             }
-            Rendering<T> rendering = renderer.render(getElement(),
-                dataCommunicator.getKeyMapper(), template);
+            if (renderingRegistration != null) {
+                renderingRegistration.remove();
+                renderingRegistration = null;
+            }
+            boolean litRenderer = renderer instanceof LitRenderer;
+            Rendering<T> rendering;
+            if (litRenderer) {
+                if (template != null) {
+                    template.removeFromParent();
+                    template = null;
+                }
+                rendering = renderer.render(getElement(),
+                    dataCommunicator.getKeyMapper());
+                renderingRegistration = rendering.getRegistration();
+            } else {
+                rendering = renderer.render(getElement(),
+                    dataCommunicator.getKeyMapper(), template);
+            }
             if (rendering.getDataGenerator().isPresent()) {
                 dataGeneratorRegistration = dataGenerator
                     .addDataGenerator(rendering.getDataGenerator().get());
             }
-            reset();
+            if (litRenderer) {
+                // resend the items in the requested range with the new
+                // properties, the client keeps its state
+                dataCommunicator.reset();
+            } else {
+                reset();
+            }
         });
     }
 
     @ClientCallable
     private void confirmUpdate(int id) {
+        if (id < 0) {
+            // confirmation of a skipped range, see confirmSkippedRange()
+            return;
+        }
         dataCommunicator.confirmUpdate(id);
     }
 
     @ClientCallable
     private void setRequestedRange(int start, int length, String filter) {
-        dataCommunicator.setRequestedRange(start, length);
+        restoreAfterDeserialization();
+        // requests sent in the same round trip, for instance while scrolling
+        // fast, are merged and only the last one is fetched
+        pendingRequestedRange = new RequestedRange(start, length, filter);
+        if (!requestedRangeScheduled) {
+            requestedRangeScheduled = true;
+            runBeforeClientResponse(ui -> {
+                requestedRangeScheduled = false;
+                applyRequestedRange();
+            });
+        }
+    }
+
+    private void applyRequestedRange() {
+        RequestedRange range = pendingRequestedRange;
+        if (range == null || dataCommunicator == null) {
+            return;
+        }
+        String filter = range.filter;
+        if (filter != null && !filter.isEmpty()
+            && filter.length() < minimumFilterLength) {
+            // too short to query
+            pendingRequestedRange = null;
+            confirmSkippedRange(filter);
+            return;
+        }
+        if (!Objects.equals(filter, lastFilter) && !filterDebounce.isZero()
+            && isPushEnabled()) {
+            long now = System.currentTimeMillis();
+            long wait = lastFilterChange + filterDebounce.toMillis() - now;
+            if (wait > 0) {
+                // answered when the debounced range is applied
+                requestedRangeSkipped = true;
+                scheduleDebouncedRange(wait);
+                return;
+            }
+            lastFilterChange = now;
+        }
+        pendingRequestedRange = null;
+        if (requestedRangeSkipped) {
+            requestedRangeSkipped = false;
+            if (Objects.equals(filter, lastFilter)) {
+                // the data communicator would see no change to send
+                dataCommunicator.reset();
+            }
+        }
+        // whole pages only, so that caching data providers see the same
+        // queries again
+        if (range.length > 0) {
+            int pageSize = getPageSize();
+            int start = Math.max(0, range.start) / pageSize * pageSize;
+            long end = (long) Math.max(0, range.start) + range.length;
+            long alignedEnd = Math.min(Integer.MAX_VALUE,
+                (end + pageSize - 1) / pageSize * pageSize);
+            dataCommunicator.setRequestedRange(start,
+                (int) (alignedEnd - start));
+        } else {
+            dataCommunicator.setRequestedRange(Math.max(0, range.start), 0);
+        }
         filterSlot.accept(filter);
         // Send (possibly updated) key for the selected values
         getElement().setPropertyJson(PROP_VALUE, modelToPresentation(this, getValue(), this::generateLabel));
     }
 
+    /**
+     * Answers a range request which is not queried with an empty page, so
+     * that the client does not keep waiting for it.
+     */
+    private void confirmSkippedRange(String filter) {
+        requestedRangeSkipped = true;
+        getElement().callJsFunction("$connector.updateSize", 0);
+        getElement().callJsFunction("$connector.set", 0, Json.createArray(),
+            filter);
+        getElement().callJsFunction("$connector.confirm", -1, filter);
+    }
+
+    private boolean isPushEnabled() {
+        UI ui = attachedUi;
+        return ui != null
+            && ui.getPushConfiguration().getPushMode().isEnabled();
+    }
+
+    private void scheduleDebouncedRange(long delayMillis) {
+        UI ui = attachedUi;
+        if (ui == null || debouncedRangeScheduled) {
+            return;
+        }
+        debouncedRangeScheduled = true;
+        CompletableFuture.runAsync(() -> {
+            try {
+                ui.access(() -> {
+                    debouncedRangeScheduled = false;
+                    applyRequestedRange();
+                });
+            } catch (UIDetachedException e) {
+                // the client requests the range again after attaching
+            }
+        }, CompletableFuture.delayedExecutor(delayMillis,
+            TimeUnit.MILLISECONDS));
+    }
+
+    private static final class RequestedRange implements Serializable {
+        private final int start;
+        private final int length;
+        private final String filter;
+
+        private RequestedRange(int start, int length, String filter) {
+            this.start = start;
+            this.length = length;
+            this.filter = filter;
+        }
+    }
+
     @ClientCallable
     private void resetDataCommunicator() {
+        restoreAfterDeserialization();
         dataCommunicator.reset();
     }
 
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // the session doesn't serialize the pending access tasks
+        submittedUpdatesScheduled.set(false);
+        deserialized = true;
+    }
+
+    /**
+     * Brings the client in sync on the first request after the component
+     * has been deserialized, for instance in another node of a cluster. The
+     * data providers don't serialize their caches and selection snapshots,
+     * so the items are sent again from the rebuilt ones, and the updates
+     * submitted before the serialization are applied.
+     */
+    private void restoreAfterDeserialization() {
+        if (!deserialized) {
+            return;
+        }
+        deserialized = false;
+        if (dataCommunicator != null) {
+            dataCommunicator.reset();
+        }
+        applySubmittedUpdates();
+    }
+
     void runBeforeClientResponse(SerializableConsumer<UI> command) {
         getElement().getNode().runWhenAttached(ui -> ui
             .beforeClientResponse(this, context -> command.accept(ui)));
@@ -1094,7 +2562,62 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
 
     @ClientCallable
     private void selectAll() {
-        setValue(getDataProvider().fetch(new Query<>()).collect(Collectors.toSet()));
+        setValue(PersistentLinkedHashSet.copyOf(getDataProvider().fetch(new Query<>())
+            .collect(Collectors.toList())));
+    }
+
+    /**
+     * Adds a contiguous range of the items matching the current filter to the
+     * selection, fetched with a single query, for instance to select the
+     * items between two clicked items.
+     * <p>
+     * The range is taken from the items as the client lists them, with the
+     * filter and sorting of the last range it requested.
+     *
+     * @param start
+     *            the index of the first item of the range, inclusive
+     * @param end
+     *            the index of the last item of the range, inclusive, may be
+     *            smaller than start when the range was selected upwards
+     */
+    public void selectRange(int start, int end) {
+        int from = Math.max(0, Math.min(start, end));
+        int to = Math.max(start, end);
+        if (to < 0) {
+            return;
+        }
+        addToSelection(fetchMatching(from, to - from + 1));
+    }
+
+    /**
+     * Adds the items matching the current filter to the selection, fetched
+     * with a single query. At most {@code maxItems} items are fetched and
+     * added, in the order the client lists them, so that a short filter
+     * doesn't load the whole backend into the selection.
+     * <p>
+     * The filter and sorting are the ones of the last range the client
+     * requested.
+     *
+     * @param maxItems
+     *            the maximum number of items to add, greater than zero
+     */
+    public void selectAllMatching(int maxItems) {
+        if (maxItems < 1) {
+            throw new IllegalArgumentException(
+                "The maximum number of items should be greater than zero.");
+        }
+        addToSelection(fetchMatching(0, maxItems));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> fetchMatching(int offset, int limit) {
+        if (dataCommunicator == null) {
+            return Collections.emptyList();
+        }
+        // the query has the filter and sorting of the last client request
+        Query<T, Object> query = dataCommunicator.buildQuery(offset, limit);
+        return ((DataProvider<T, Object>) dataCommunicator.getDataProvider())
+            .fetch(query).collect(Collectors.toList());
     }
 
     public MultiComboboxMode getValueChangeMode() {
@@ -1168,6 +2691,104 @@ public class MultiComboBox<T> extends GeneratedMultiComboBox<MultiComboBox<T>, T
         });
     }
 
+    private static final class SelectionDelta<T> implements Serializable {
+        private final List<T> added;
+        private final List<T> removed;
+
+        private SelectionDelta(List<T> added, List<T> removed) {
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Event fired when the selection of a {@link MultiComboBox} changes,
+     * telling which items have been added to and removed from the selection.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    public static class SelectionChangeEvent<T>
+        extends ComponentEvent<MultiComboBox<T>> {
+        private final Set<T> addedItems;
+        private final Set<T> removedItems;
+
+        /**
+         * Creates a new selection change event.
+         *
+         * @param source
+         *            the combo box whose selection changed
+         * @param fromClient
+         *            <code>true</code> if the change originated from the
+         *            client side, <code>false</code> otherwise
+         * @param addedItems
+         *            the items added to the selection
+         * @param removedItems
+         *            the items removed from the selection
+         */
+        public SelectionChangeEvent(MultiComboBox<T> source,
+                                    boolean fromClient, Collection<T> addedItems,
+                                    Collection<T> removedItems) {
+            super(source, fromClient);
+            this.addedItems = Collections
+                .unmodifiableSet(new LinkedHashSet<>(addedItems));
+            this.removedItems = Collections
+                .unmodifiableSet(new LinkedHashSet<>(removedItems));
+        }
+
+        /**
+         * Gets the items added to the selection.
+         *
+         * @return the added items, not <code>null</code>
+         */
+        public Set<T> getAddedItems() {
+            return addedItems;
+        }
+
+        /**
+         * Gets the items removed from the selection.
+         *
+         * @return the removed items, not <code>null</code>
+         */
+        public Set<T> getRemovedItems() {
+            return removedItems;
+        }
+    }
+
+    /**
+     * A page of items returned by a {@link FetchPageCallback}, with the count
+     * of all the items matching the filter.
+     *
+     * @param <T>
+     *            item (bean) type in ComboBox
+     */
+    public static class ItemPage<T> implements Serializable {
+        private final List<T> items;
+        private final int totalCount;
+
+        /**
+         * Creates a new page.
+         *
+         * @param items
+         *            the items of the page, not <code>null</code>
+         * @param totalCount
+         *            the count of all the items matching the filter
+         */
+        public ItemPage(List<T> items, int totalCount) {
+            this.items = Objects.requireNonNull(items,
+                "Items cannot be null");
+            this.totalCount = totalCount;
+        }
+
+        public List<T> getItems() {
+            return items;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+    }
+
     /**
      * The internationalization properties for {@link MultiComboBox}.
      */
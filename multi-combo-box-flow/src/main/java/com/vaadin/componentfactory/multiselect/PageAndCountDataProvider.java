@@ -0,0 +1,89 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.FetchPageCallback;
+import com.vaadin.componentfactory.multiselect.MultiComboBox.ItemPage;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableSupplier;
+
+import java.util.EventObject;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Data provider backed by a {@link FetchPageCallback}. Counting the items of
+ * a filter also fetches the first page, which is kept and used for the counts
+ * and the fetch that follow, so a new filter costs a single backend call.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+class PageAndCountDataProvider<T> extends AbstractBackEndDataProvider<T, String> {
+
+    private final FetchPageCallback<T> fetchPage;
+    private final SerializableSupplier<Integer> firstPageSize;
+
+    private transient String firstPageFilter;
+    private transient ItemPage<T> firstPage;
+
+    PageAndCountDataProvider(FetchPageCallback<T> fetchPage,
+                             SerializableSupplier<Integer> firstPageSize) {
+        this.fetchPage = fetchPage;
+        this.firstPageSize = firstPageSize;
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        if (query.getOffset() == 0 && firstPage != null
+            && filter.equals(firstPageFilter)) {
+            List<T> items = firstPage.getItems();
+            boolean complete = items.size() >= firstPage.getTotalCount();
+            firstPage = null;
+            if (complete || items.size() >= query.getLimit()) {
+                return items.stream().limit(query.getLimit());
+            }
+        }
+        return fetchPage.fetchPage(filter, query.getOffset(), query.getLimit())
+            .getItems().stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        // counted again before the fetch, for instance on attach and then
+        // when the drop-down is opened
+        if (firstPage == null || !filter.equals(firstPageFilter)) {
+            firstPage = fetchPage.fetchPage(filter, 0, firstPageSize.get());
+            firstPageFilter = filter;
+        }
+        return firstPage.getTotalCount();
+    }
+
+    @Override
+    protected void fireEvent(EventObject event) {
+        firstPage = null;
+        super.fireEvent(event);
+    }
+}
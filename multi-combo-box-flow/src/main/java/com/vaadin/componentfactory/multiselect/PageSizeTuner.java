@@ -0,0 +1,123 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Picks a page size from the measured cost of the rows: the time the data
+ * provider takes to fetch a row and the size of a row sent to the client.
+ * The page size is the largest one whose fetch fits in the latency budget
+ * and whose rows fit in the byte budget, within the given bounds. The costs
+ * are smoothed over the measurements so a single slow query doesn't swing
+ * the page size.
+ */
+class PageSizeTuner implements Serializable {
+
+    private static final double SMOOTHING = 0.3;
+    // changes smaller than this share of the page size are not applied
+    private static final double HYSTERESIS = 0.25;
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long latencyBudgetNanos;
+    private final int byteBudget;
+
+    private double nanosPerRow = -1;
+    private double bytesPerRow = -1;
+
+    /**
+     * Creates a new tuner.
+     *
+     * @param minPageSize
+     *            the smallest page size, greater than zero
+     * @param maxPageSize
+     *            the largest page size, not smaller than the smallest
+     * @param latencyBudget
+     *            the time a page may take to fetch, not <code>null</code>
+     * @param byteBudget
+     *            the number of bytes a page may take, greater than zero
+     */
+    PageSizeTuner(int minPageSize, int maxPageSize, Duration latencyBudget,
+                  int byteBudget) {
+        if (minPageSize < 1 || maxPageSize < minPageSize) {
+            throw new IllegalArgumentException(
+                "Page size bounds should be greater than zero and the maximum should not be smaller than the minimum.");
+        }
+        Objects.requireNonNull(latencyBudget, "Latency budget cannot be null");
+        if (latencyBudget.isNegative() || latencyBudget.isZero()) {
+            throw new IllegalArgumentException(
+                "Latency budget should be greater than zero.");
+        }
+        if (byteBudget < 1) {
+            throw new IllegalArgumentException(
+                "Byte budget should be greater than zero.");
+        }
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.latencyBudgetNanos = latencyBudget.toNanos();
+        this.byteBudget = byteBudget;
+    }
+
+    void recordFetch(int rows, long nanos) {
+        if (rows > 0) {
+            nanosPerRow = smooth(nanosPerRow, (double) nanos / rows);
+        }
+    }
+
+    void recordRows(int rows, long bytes) {
+        if (rows > 0) {
+            bytesPerRow = smooth(bytesPerRow, (double) bytes / rows);
+        }
+    }
+
+    private static double smooth(double average, double sample) {
+        return average < 0 ? sample
+            : average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * Gets the page size to use instead of the current one.
+     *
+     * @param currentPageSize
+     *            the page size in use
+     * @return the new page size, or the current one if it is close enough
+     */
+    int getPageSize(int currentPageSize) {
+        double rows = maxPageSize;
+        if (nanosPerRow > 0) {
+            rows = Math.min(rows, latencyBudgetNanos / nanosPerRow);
+        }
+        if (bytesPerRow > 0) {
+            rows = Math.min(rows, byteBudget / bytesPerRow);
+        }
+        int pageSize = (int) Math.max(minPageSize, Math.min(maxPageSize, rows));
+        boolean outOfBounds = currentPageSize < minPageSize
+            || currentPageSize > maxPageSize;
+        if (!outOfBounds && Math.abs(pageSize - currentPageSize)
+            < currentPageSize * HYSTERESIS) {
+            return currentPageSize;
+        }
+        return pageSize;
+    }
+}
@@ -0,0 +1,532 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable set iterating in insertion order, like a
+ * {@link java.util.LinkedHashSet}. The elements are stored in a hash array
+ * mapped trie, which gives each element its position in an order vector, a
+ * trie indexed by position. Adding or removing a single element creates a
+ * new set in O(log n) time that shares all the untouched branches of both
+ * tries with the original, so toggling one item of a large selection does
+ * not copy the whole selection.
+ * <p>
+ * A removed element leaves an empty position in the order vector. When the
+ * empty positions outnumber the elements, the set is rebuilt without them,
+ * so removing stays O(log n) amortized.
+ * <p>
+ * The sum of the element hash codes is kept up to date on every change, so
+ * {@link #hashCode()} is constant time and {@link #equals(Object)} rejects
+ * most unequal sets without looking at the elements. <code>null</code>
+ * elements are not supported.
+ *
+ * @param <T>
+ *            the element type
+ */
+final class PersistentLinkedHashSet<T> extends AbstractSet<T>
+    implements Serializable {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    // empty positions tolerated in the order vector besides one per element
+    private static final int MIN_EMPTY_POSITIONS = WIDTH;
+
+    private static final PersistentLinkedHashSet<?> EMPTY = new PersistentLinkedHashSet<>(
+        null, OrderVector.EMPTY, 0, 0);
+
+    private final transient Node root;
+    private final transient OrderVector order;
+    private final transient int size;
+    private final transient int hash;
+
+    private PersistentLinkedHashSet(Node root, OrderVector order, int size,
+                                    int hash) {
+        this.root = root;
+        this.order = order;
+        this.size = size;
+        this.hash = hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PersistentLinkedHashSet<T> empty() {
+        return (PersistentLinkedHashSet<T>) EMPTY;
+    }
+
+    /**
+     * Gets a persistent set with the given elements, in their iteration
+     * order. Returns the argument itself if it already is a persistent set.
+     *
+     * @param elements
+     *            the elements of the set, not <code>null</code>
+     * @return a persistent set with the elements
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PersistentLinkedHashSet<T> copyOf(
+        Collection<? extends T> elements) {
+        Objects.requireNonNull(elements, "Elements cannot be null");
+        if (elements instanceof PersistentLinkedHashSet) {
+            return (PersistentLinkedHashSet<T>) elements;
+        }
+        PersistentLinkedHashSet<T> set = empty();
+        for (T element : elements) {
+            set = set.with(element);
+        }
+        return set;
+    }
+
+    /**
+     * Gets a set which has the elements of this set and the given element,
+     * as the last one.
+     *
+     * @param element
+     *            the element to add, not <code>null</code>
+     * @return the new set, or this set if it already has the element
+     */
+    PersistentLinkedHashSet<T> with(T element) {
+        Objects.requireNonNull(element, "Element cannot be null");
+        int elementHash = element.hashCode();
+        Leaf leaf = new Leaf(element, elementHash, order.count);
+        Node newRoot = root == null ? BitmapNode.of(leaf, 0)
+            : root.with(leaf, 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentLinkedHashSet<>(newRoot, order.append(element),
+            size + 1, hash + elementHash);
+    }
+
+    /**
+     * Gets a set which has the elements of this set except the given
+     * element.
+     *
+     * @param element
+     *            the element to remove
+     * @return the new set, or this set if it doesn't have the element
+     */
+    PersistentLinkedHashSet<T> without(Object element) {
+        if (root == null || element == null) {
+            return this;
+        }
+        int elementHash = element.hashCode();
+        Leaf leaf = root.find(element, elementHash, 0);
+        if (leaf == null) {
+            return this;
+        }
+        Node newRoot = root.without(element, elementHash, 0);
+        if (newRoot == null) {
+            return empty();
+        }
+        PersistentLinkedHashSet<T> set = new PersistentLinkedHashSet<>(
+            newRoot, order.set(leaf.position, null), size - 1,
+            hash - elementHash);
+        return set.order.count - set.size > set.size + MIN_EMPTY_POSITIONS
+            ? set.compact()
+            : set;
+    }
+
+    // Rebuilds the set without the empty positions of the order vector
+    private PersistentLinkedHashSet<T> compact() {
+        PersistentLinkedHashSet<T> set = empty();
+        for (T element : this) {
+            set = set.with(element);
+        }
+        return set;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return root != null && element != null
+            && root.find(element, element.hashCode(), 0) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new OrderIterator<>(order);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof PersistentLinkedHashSet) {
+            PersistentLinkedHashSet<?> other = (PersistentLinkedHashSet<?>) o;
+            if (other.size != size || other.hash != hash) {
+                return false;
+            }
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    // Hash codes may change between JVMs, so only the elements are written,
+    // in order, and the tries are rebuilt when read back.
+    private Object writeReplace() {
+        return new SerializedForm(toArray());
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private final Object[] elements;
+
+        private SerializedForm(Object[] elements) {
+            this.elements = elements;
+        }
+
+        private Object readResolve() {
+            PersistentLinkedHashSet<Object> set = empty();
+            for (Object element : elements) {
+                set = set.with(element);
+            }
+            return set;
+        }
+    }
+
+    // An element of the hash trie with its position in the order vector
+    private static final class Leaf {
+        private final Object element;
+        private final int hash;
+        private final int position;
+
+        private Leaf(Object element, int hash, int position) {
+            this.element = element;
+            this.hash = hash;
+            this.position = position;
+        }
+    }
+
+    private abstract static class Node {
+        abstract Leaf find(Object element, int hash, int shift);
+
+        // Returns this node if the element is already there
+        abstract Node with(Leaf leaf, int shift);
+
+        // Returns this node if the element is not there, null if the
+        // node becomes empty
+        abstract Node without(Object element, int hash, int shift);
+
+        // The leaf if this node holds exactly one leaf and no child nodes,
+        // null otherwise
+        abstract Leaf singleLeaf();
+    }
+
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        static Node of(Leaf leaf, int shift) {
+            return new BitmapNode(bit(leaf.hash, shift), new Object[] { leaf });
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Leaf find(Object element, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[index(bit)];
+            if (slot instanceof Node) {
+                return ((Node) slot).find(element, hash, shift + BITS);
+            }
+            Leaf leaf = (Leaf) slot;
+            return leaf.element.equals(element) ? leaf : null;
+        }
+
+        @Override
+        Node with(Leaf leaf, int shift) {
+            int bit = bit(leaf.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1,
+                    slots.length - index);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+            Object slot = slots[index];
+            Node newChild;
+            if (slot instanceof Node) {
+                newChild = ((Node) slot).with(leaf, shift + BITS);
+                if (newChild == slot) {
+                    return this;
+                }
+            } else if (((Leaf) slot).element.equals(leaf.element)) {
+                return this;
+            } else {
+                newChild = merge((Leaf) slot, leaf, shift + BITS);
+            }
+            return withSlot(index, newChild);
+        }
+
+        private static Node merge(Leaf first, Leaf second, int shift) {
+            if (shift >= Integer.SIZE) {
+                return new CollisionNode(new Leaf[] { first, second });
+            }
+            int firstBit = bit(first.hash, shift);
+            int secondBit = bit(second.hash, shift);
+            if (firstBit == secondBit) {
+                return new BitmapNode(firstBit,
+                    new Object[] { merge(first, second, shift + BITS) });
+            }
+            Object[] slots = Integer.compareUnsigned(firstBit, secondBit) < 0
+                ? new Object[] { first, second }
+                : new Object[] { second, first };
+            return new BitmapNode(firstBit | secondBit, slots);
+        }
+
+        @Override
+        Node without(Object element, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slot = slots[index];
+            if (slot instanceof Node) {
+                Node newChild = ((Node) slot).without(element, hash,
+                    shift + BITS);
+                if (newChild == slot) {
+                    return this;
+                }
+                if (newChild == null) {
+                    return withoutSlot(index, bit);
+                }
+                Leaf single = newChild.singleLeaf();
+                return withSlot(index, single != null ? single : newChild);
+            }
+            return ((Leaf) slot).element.equals(element)
+                ? withoutSlot(index, bit)
+                : this;
+        }
+
+        private Node withSlot(int index, Object slot) {
+            Object[] newSlots = slots.clone();
+            newSlots[index] = slot;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        private Node withoutSlot(int index, int bit) {
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index,
+                newSlots.length - index);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+
+        @Override
+        Leaf singleLeaf() {
+            return slots.length == 1 && slots[0] instanceof Leaf
+                ? (Leaf) slots[0]
+                : null;
+        }
+    }
+
+    // Elements whose hash codes are equal, below the last level of the trie
+    private static final class CollisionNode extends Node {
+        private final Leaf[] leaves;
+
+        private CollisionNode(Leaf[] leaves) {
+            this.leaves = leaves;
+        }
+
+        private int indexOf(Object element) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].element.equals(element)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Leaf find(Object element, int hash, int shift) {
+            int index = indexOf(element);
+            return index < 0 ? null : leaves[index];
+        }
+
+        @Override
+        Node with(Leaf leaf, int shift) {
+            if (indexOf(leaf.element) >= 0) {
+                return this;
+            }
+            Leaf[] newLeaves = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+            newLeaves[leaves.length] = leaf;
+            return new CollisionNode(newLeaves);
+        }
+
+        @Override
+        Node without(Object element, int hash, int shift) {
+            int index = indexOf(element);
+            if (index < 0) {
+                return this;
+            }
+            if (leaves.length == 1) {
+                return null;
+            }
+            Leaf[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, index);
+            System.arraycopy(leaves, index + 1, newLeaves, index,
+                newLeaves.length - index);
+            return new CollisionNode(newLeaves);
+        }
+
+        @Override
+        Leaf singleLeaf() {
+            return leaves.length == 1 ? leaves[0] : null;
+        }
+    }
+
+    /**
+     * Elements by position, in a trie of {@value #WIDTH} wide arrays. The
+     * positions of removed elements hold <code>null</code>.
+     */
+    private static final class OrderVector {
+        private static final OrderVector EMPTY = new OrderVector(
+            new Object[WIDTH], 0, 0);
+
+        private final Object[] root;
+        // shift of the root level, 0 when the root holds the elements
+        private final int shift;
+        // positions used, including the empty ones
+        private final int count;
+
+        private OrderVector(Object[] root, int shift, int count) {
+            this.root = root;
+            this.shift = shift;
+            this.count = count;
+        }
+
+        OrderVector append(Object element) {
+            if (count == 1 << (shift + BITS)) {
+                // full, grow by one level
+                Object[] newRoot = new Object[WIDTH];
+                newRoot[0] = root;
+                return new OrderVector(
+                    set(newRoot, shift + BITS, count, element),
+                    shift + BITS, count + 1);
+            }
+            return new OrderVector(set(root, shift, count, element), shift,
+                count + 1);
+        }
+
+        OrderVector set(int position, Object element) {
+            return new OrderVector(set(root, shift, position, element), shift,
+                count);
+        }
+
+        private static Object[] set(Object[] node, int shift, int position,
+                                    Object element) {
+            Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+            if (shift == 0) {
+                copy[position & MASK] = element;
+            } else {
+                int index = (position >>> shift) & MASK;
+                copy[index] = set((Object[]) copy[index], shift - BITS,
+                    position, element);
+            }
+            return copy;
+        }
+
+        // The array holding the element at the position
+        Object[] elementsAt(int position) {
+            Object[] node = root;
+            for (int level = shift; level > 0; level -= BITS) {
+                node = (Object[]) node[(position >>> level) & MASK];
+            }
+            return node;
+        }
+    }
+
+    private static final class OrderIterator<T> implements Iterator<T> {
+        private final OrderVector order;
+        private int position = -1;
+        private Object[] elements;
+        private Object next;
+
+        private OrderIterator(OrderVector order) {
+            this.order = order;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (++position < order.count) {
+                if ((position & MASK) == 0) {
+                    elements = order.elementsAt(position);
+                }
+                next = elements[position & MASK];
+                if (next != null) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            T result = (T) next;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.ExcludingFetchItemsCallback;
+import com.vaadin.componentfactory.multiselect.MultiComboBox.ItemFilter;
+import com.vaadin.flow.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.function.SerializableBiFunction;
+import com.vaadin.flow.function.SerializableSupplier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Data provider listing the selected items of a {@link MultiComboBox} before
+ * the items of a backend.
+ * <p>
+ * The first segment holds the selected items matching the filter, the second
+ * one the backend items with the selected items excluded, so that the backend
+ * does not need to sort by selection. The selection is read on the first
+ * request and kept until {@link #clearSelectionSnapshot()} or a data change
+ * event, so that the segments do not move while the user scrolls.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+class SelectedFirstDataProvider<T> extends AbstractBackEndDataProvider<T, String> {
+
+    private final ExcludingFetchItemsCallback<T> fetchItems;
+    private final SerializableBiFunction<String, Set<T>, Integer> sizeCallback;
+    private final SerializableSupplier<Set<T>> selection;
+    private final ItemFilter<T> selectedItemFilter;
+
+    // read again after deserialization
+    private transient Set<T> selectionSnapshot;
+    private transient String selectedItemsFilter;
+    private transient List<T> selectedItems;
+
+    SelectedFirstDataProvider(ExcludingFetchItemsCallback<T> fetchItems,
+                              SerializableBiFunction<String, Set<T>, Integer> sizeCallback,
+                              SerializableSupplier<Set<T>> selection,
+                              ItemFilter<T> selectedItemFilter) {
+        this.fetchItems = fetchItems;
+        this.sizeCallback = sizeCallback;
+        this.selection = selection;
+        this.selectedItemFilter = selectedItemFilter;
+    }
+
+    @Override
+    protected Stream<T> fetchFromBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        List<T> selected = getSelectedItems(filter);
+        int offset = query.getOffset();
+        int limit = query.getLimit();
+
+        List<T> result = new ArrayList<>();
+        if (offset < selected.size()) {
+            int end = (int) Math.min((long) offset + limit, selected.size());
+            result.addAll(selected.subList(offset, end));
+        }
+        int remaining = limit - result.size();
+        if (remaining > 0) {
+            int backendOffset = Math.max(0, offset - selected.size());
+            fetchItems.fetchItems(filter, selectionSnapshot, backendOffset,
+                remaining).forEach(result::add);
+        }
+        return result.stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<T, String> query) {
+        String filter = query.getFilter().orElse("");
+        List<T> selected = getSelectedItems(filter);
+        return selected.size() + sizeCallback.apply(filter, selectionSnapshot);
+    }
+
+    /**
+     * Makes the next request read the selection again.
+     */
+    void clearSelectionSnapshot() {
+        selectionSnapshot = null;
+        selectedItems = null;
+    }
+
+    @Override
+    protected void fireEvent(EventObject event) {
+        clearSelectionSnapshot();
+        super.fireEvent(event);
+    }
+
+    private List<T> getSelectedItems(String filter) {
+        if (selectionSnapshot == null) {
+            Set<T> current = selection.get();
+            selectionSnapshot = current == null ? Collections.emptySet()
+                : Collections.unmodifiableSet(new LinkedHashSet<>(current));
+            selectedItems = null;
+        }
+        if (selectedItems == null || !filter.equals(selectedItemsFilter)) {
+            selectedItems = selectionSnapshot.stream()
+                .filter(item -> selectedItemFilter.test(item, filter))
+                .collect(Collectors.toList());
+            selectedItemsFilter = filter;
+        }
+        return selectedItems;
+    }
+}
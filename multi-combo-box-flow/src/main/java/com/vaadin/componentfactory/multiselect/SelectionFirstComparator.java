@@ -0,0 +1,61 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.flow.function.SerializableComparator;
+import com.vaadin.flow.function.SerializableSupplier;
+
+import java.util.Set;
+
+/**
+ * Orders the selected items of a {@link MultiComboBox} before the other
+ * items, keeping the original order inside both groups.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+class SelectionFirstComparator<T> implements SerializableComparator<T> {
+
+    private final SerializableSupplier<Set<T>> selection;
+
+    SelectionFirstComparator(SerializableSupplier<Set<T>> selection) {
+        this.selection = selection;
+    }
+
+    /**
+     * Gets the current selection.
+     *
+     * @return the selected items, or {@code null} if nothing is selected
+     */
+    Set<T> getSelection() {
+        return selection.get();
+    }
+
+    @Override
+    public int compare(T t1, T t2) {
+        Set<T> selected = getSelection();
+        if (selected == null) {
+            return 0;
+        }
+        return Boolean.compare(selected.contains(t2), selected.contains(t1));
+    }
+}
@@ -0,0 +1,201 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.vaadin.componentfactory.multiselect.MultiComboBox.FetchItemsCallback;
+import com.vaadin.flow.function.SerializableFunction;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Application scoped wrapper of a fetch callback and a size callback which
+ * shares the backend results between all the sessions using it.
+ * <p>
+ * Concurrent identical calls, from any session, are coalesced into a single
+ * backend call whose result is handed to every caller. Results are also kept
+ * for a short time in a size-bounded cache so that calls arriving right after
+ * are answered without the backend.
+ * <p>
+ * Create one instance per backend query, keep it in application scope and
+ * give it to each combo box as both callbacks:
+ *
+ * <pre>
+ * combobox.setDataProvider(sharedCallback, sharedCallback);
+ * </pre>
+ * <p>
+ * The fetched items are handed to several sessions, so they should not be
+ * modified. When the session is serialized, the shared state is not: a
+ * deserialized instance starts with an empty cache of its own.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+public class SharedFetchCallback<T> implements FetchItemsCallback<T>,
+    SerializableFunction<String, Integer> {
+
+    private final FetchItemsCallback<T> fetchItems;
+    private final SerializableFunction<String, Integer> sizeCallback;
+    private final int maxEntries;
+    private final Duration timeToLive;
+
+    private transient ConcurrentMap<FetchQueryKey, CompletableFuture<List<T>>> runningFetches;
+    private transient ConcurrentMap<String, CompletableFuture<Integer>> runningSizes;
+    private transient ExpiringLruCache<FetchQueryKey, List<T>> fetchCache;
+    private transient ExpiringLruCache<String, Integer> sizeCache;
+
+    /**
+     * Creates a new shared callback.
+     *
+     * @param fetchItems
+     *            the backend callback for fetching items, not
+     *            <code>null</code>
+     * @param sizeCallback
+     *            the backend callback for getting the count of items, not
+     *            <code>null</code>
+     * @param maxEntries
+     *            the maximum number of fetch results, and separately of
+     *            counts, kept in the cache
+     * @param timeToLive
+     *            how long a result is reused after the backend call, not
+     *            <code>null</code>
+     */
+    public SharedFetchCallback(FetchItemsCallback<T> fetchItems,
+                               SerializableFunction<String, Integer> sizeCallback,
+                               int maxEntries, Duration timeToLive) {
+        this.fetchItems = Objects.requireNonNull(fetchItems,
+            "Fetch callback cannot be null");
+        this.sizeCallback = Objects.requireNonNull(sizeCallback,
+            "Size callback cannot be null");
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        init();
+    }
+
+    private void init() {
+        runningFetches = new ConcurrentHashMap<>();
+        runningSizes = new ConcurrentHashMap<>();
+        fetchCache = new ExpiringLruCache<>(maxEntries, timeToLive);
+        sizeCache = new ExpiringLruCache<>(maxEntries, timeToLive);
+    }
+
+    @Override
+    public Stream<T> fetchItems(String filter, int offset, int limit) {
+        FetchQueryKey key = new FetchQueryKey(filter, offset, limit);
+        return coalesce(key, runningFetches, fetchCache,
+            () -> Collections.unmodifiableList(fetchItems
+                .fetchItems(filter, offset, limit)
+                .collect(Collectors.toList()))).stream();
+    }
+
+    @Override
+    public Integer apply(String filter) {
+        return coalesce(filter, runningSizes, sizeCache,
+            () -> sizeCallback.apply(filter));
+    }
+
+    /**
+     * Removes all the cached results, so that the next calls go to the
+     * backend. Calls already running complete for their callers, but their
+     * results are not cached and later calls don't join them.
+     */
+    public void invalidate() {
+        fetchCache.clear();
+        sizeCache.clear();
+        runningFetches.clear();
+        runningSizes.clear();
+    }
+
+    /**
+     * Gets the number of calls answered from the cache. Calls which joined
+     * a running backend call are not included.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return fetchCache.getHitCount() + sizeCache.getHitCount();
+    }
+
+    /**
+     * Gets the number of calls which were not found in the cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return fetchCache.getMissCount() + sizeCache.getMissCount();
+    }
+
+    private static <K, V> V coalesce(K key,
+                                     ConcurrentMap<K, CompletableFuture<V>> running,
+                                     ExpiringLruCache<K, V> cache, Supplier<V> backendCall) {
+        // read before the cache, a clear in between makes it stale
+        long generation = cache.getGeneration();
+        V cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = running.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            V value = backendCall.get();
+            cache.put(key, value, generation);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(key, future);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+    }
+}
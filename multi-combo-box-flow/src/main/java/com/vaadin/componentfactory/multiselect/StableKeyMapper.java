@@ -0,0 +1,85 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.flow.data.provider.KeyMapper;
+import com.vaadin.flow.function.ValueProvider;
+
+/**
+ * Key mapper which can derive the keys from the item ids of the data
+ * provider, so that an item gets the same key every time it is sent to the
+ * client, also after the data has been reset and the key of the item has
+ * been released. Ids whose string form is already taken by another item get
+ * a generated key, and so do the items whose id is the item itself, as when
+ * the data provider doesn't override {@code getId}: the string form of an
+ * item may be large or hold data the client should not see.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+class StableKeyMapper<T> extends KeyMapper<T> {
+
+    private static final String KEY_PREFIX = "id:";
+
+    private ValueProvider<T, Object> identifierGetter = item -> item;
+    private boolean stableKeys;
+    private String nextKey;
+
+    void setStableKeys(boolean stableKeys) {
+        this.stableKeys = stableKeys;
+    }
+
+    boolean isStableKeys() {
+        return stableKeys;
+    }
+
+    @Override
+    public void setIdentifierGetter(
+        ValueProvider<T, Object> identifierGetter) {
+        super.setIdentifierGetter(identifierGetter);
+        this.identifierGetter = identifierGetter;
+    }
+
+    @Override
+    public String key(T item) {
+        if (!stableKeys || item == null || has(item)) {
+            return super.key(item);
+        }
+        Object id = identifierGetter.apply(item);
+        if (id == item) {
+            return super.key(item);
+        }
+        nextKey = KEY_PREFIX + id;
+        try {
+            return super.key(item);
+        } finally {
+            nextKey = null;
+        }
+    }
+
+    @Override
+    protected String createKey() {
+        if (nextKey != null && !containsKey(nextKey)) {
+            return nextKey;
+        }
+        return super.createKey();
+    }
+}
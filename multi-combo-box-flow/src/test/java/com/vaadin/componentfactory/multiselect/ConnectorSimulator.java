@@ -0,0 +1,595 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation;
+import com.vaadin.flow.component.internal.UIInternals.JavaScriptInvocation;
+import com.vaadin.flow.dom.Element;
+import com.vaadin.flow.internal.StateTree;
+import com.vaadin.flow.internal.nodefeature.ElementPropertyMap;
+import com.vaadin.flow.internal.nodefeature.PropertyChangeDeniedException;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.FutureAccess;
+import com.vaadin.flow.server.VaadinSession;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for the browser side of a {@link MultiComboBox} in server-side
+ * tests. The combo box is attached to a UI with a bare session, the client
+ * callable methods are invoked as the connector would, and the JavaScript
+ * calls queued for the client are captured on every round trip. Like a
+ * request, every interaction holds the session lock, so a simulator can be
+ * driven from any thread, one thread at a time; changes to the combo box
+ * itself should go through {@link #run(Runnable)}. The
+ * {@code $connector.set} and {@code $connector.updateSize} calls are applied
+ * to a simulated client cache, and every {@code $connector.confirm} is
+ * answered with {@code confirmUpdate}, as {@code comboBoxConnector.js} does.
+ * <p>
+ * Tasks given to {@link UI#access(com.vaadin.flow.server.Command)} are run
+ * at the start of the next round trip, as the service runs them when the
+ * session is unlocked. Server push is not simulated.
+ *
+ * @param <T>
+ *            item (bean) type in ComboBox
+ */
+public class ConnectorSimulator<T> {
+
+    private static final Pattern CONNECTOR_FUNCTION = Pattern
+        .compile("\\$connector\\.(\\w+)\\(");
+    // confirmations answered per round trip before giving up
+    private static final int MAX_CONFIRM_ROUNDS = 10;
+
+    /**
+     * A JavaScript call the server queued for the client.
+     */
+    public static final class ClientCall {
+        private final String function;
+        private final String expression;
+        private final List<Object> arguments;
+        private final int bytes;
+
+        private ClientCall(String function, String expression,
+                           List<Object> arguments, int bytes) {
+            this.function = function;
+            this.expression = expression;
+            this.arguments = arguments;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gets the name of the called connector function, for instance
+         * {@code set} for {@code $connector.set}.
+         *
+         * @return the connector function, or <code>null</code> if this is
+         *         not a connector call
+         */
+        public String getFunction() {
+            return function;
+        }
+
+        public String getExpression() {
+            return expression;
+        }
+
+        /**
+         * Gets the arguments of the call, without the element it is called
+         * on.
+         *
+         * @return the arguments
+         */
+        public List<Object> getArguments() {
+            return arguments;
+        }
+
+        /**
+         * Gets the approximate number of bytes of the arguments when sent
+         * to the client as JSON.
+         *
+         * @return the size of the arguments in bytes
+         */
+        public int getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return function != null ? "$connector." + function : expression;
+        }
+    }
+
+    /**
+     * Session without a service.
+     */
+    private static final class SimulatedSession extends VaadinSession {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private SimulatedSession() {
+            super(null);
+        }
+
+        @Override
+        public Future<Void> access(Command command) {
+            FutureAccess future = new FutureAccess(this, command);
+            getPendingAccessQueue().add(future);
+            return future;
+        }
+
+        @Override
+        public Lock getLockInstance() {
+            return lock;
+        }
+
+        @Override
+        public boolean hasLock() {
+            return lock.isHeldByCurrentThread();
+        }
+    }
+
+    private final MultiComboBox<T> comboBox;
+    private final UI ui;
+    private final List<ClientCall> calls = new ArrayList<>();
+    private final Map<Integer, JsonObject> items = new TreeMap<>();
+    private int size = -1;
+    private long bytesSent;
+
+    /**
+     * Attaches the combo box to a new UI and runs the first round trip.
+     *
+     * @param comboBox
+     *            the combo box to simulate the client of, not
+     *            <code>null</code>
+     */
+    public ConnectorSimulator(MultiComboBox<T> comboBox) {
+        this.comboBox = Objects.requireNonNull(comboBox,
+            "Combo box cannot be null");
+        ui = new UI();
+        ui.getInternals().setSession(new SimulatedSession());
+        withSession(() -> {
+            ui.add(comboBox);
+            return roundTrip();
+        });
+    }
+
+    private ConnectorSimulator(MultiComboBox<T> comboBox, UI ui,
+                               ConnectorSimulator<T> client) {
+        this.comboBox = comboBox;
+        this.ui = ui;
+        items.putAll(client.items);
+        size = client.size;
+    }
+
+    private <R> R withSession(Supplier<R> action) {
+        Lock lock = ui.getSession().getLockInstance();
+        lock.lock();
+        // the locale of the combo box is read from the current UI
+        UI previous = UI.getCurrent();
+        UI.setCurrent(ui);
+        try {
+            return action.get();
+        } finally {
+            UI.setCurrent(previous);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a change to the combo box while holding the session lock, as the
+     * server does while handling a request, and runs a round trip.
+     *
+     * @param change
+     *            the change to run
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> run(Runnable change) {
+        return withSession(() -> {
+            change.run();
+            return roundTrip();
+        });
+    }
+
+    /**
+     * Removes the combo box from the UI, as when navigating away from its
+     * view, and runs a round trip.
+     *
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> detach() {
+        return run(() -> ui.remove(comboBox));
+    }
+
+    /**
+     * Adds the combo box back to the UI, as when navigating back to its
+     * view, and runs a round trip. The element is created again on the
+     * client, so the simulated client cache is cleared.
+     *
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> attach() {
+        items.clear();
+        size = -1;
+        return run(() -> ui.add(comboBox));
+    }
+
+    /**
+     * Serializes the UI with the combo box, as the session is serialized
+     * for replication or passivation.
+     *
+     * @return the serialized UI and combo box
+     */
+    public byte[] serialize() {
+        return withSession(() -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(ui);
+                out.writeObject(comboBox);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        });
+    }
+
+    /**
+     * Serializes and deserializes the UI with the combo box, as when the
+     * session fails over to another node, and returns a simulator for the
+     * copy. The simulated client keeps the items it has received.
+     *
+     * @return a simulator for the deserialized combo box
+     */
+    @SuppressWarnings("unchecked")
+    public ConnectorSimulator<T> replicate() {
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(serialize()))) {
+            UI uiCopy = (UI) in.readObject();
+            MultiComboBox<T> comboBoxCopy = (MultiComboBox<T>) in
+                .readObject();
+            return new ConnectorSimulator<>(comboBoxCopy, uiCopy, this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public MultiComboBox<T> getComboBox() {
+        return comboBox;
+    }
+
+    private void runPendingAccessTasks() {
+        FutureAccess access;
+        while ((access = ui.getSession().getPendingAccessQueue()
+            .poll()) != null) {
+            access.run();
+            try {
+                access.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks scheduled before the response and captures the
+     * JavaScript calls queued for the client, answering the confirmations.
+     *
+     * @return the calls captured in this round trip
+     */
+    public List<ClientCall> roundTrip() {
+        return withSession(this::collectCalls);
+    }
+
+    private List<ClientCall> collectCalls() {
+        runPendingAccessTasks();
+        List<ClientCall> captured = new ArrayList<>();
+        for (int round = 0; round < MAX_CONFIRM_ROUNDS; round++) {
+            StateTree stateTree = ui.getInternals().getStateTree();
+            stateTree.runExecutionsBeforeClientResponse();
+            // marks the nodes as sent to the client, as writing the response
+            // does; until then the data communicator resets on every round
+            stateTree.collectChanges(change -> {
+            });
+            List<Integer> confirmations = new ArrayList<>();
+            for (PendingJavaScriptInvocation invocation : ui.getInternals()
+                .dumpPendingJavaScriptInvocations()) {
+                ClientCall call = capture(invocation.getInvocation());
+                captured.add(call);
+                if ("confirm".equals(call.getFunction())) {
+                    confirmations.add(
+                        ((Number) call.getArguments().get(0)).intValue());
+                }
+            }
+            if (confirmations.isEmpty()) {
+                break;
+            }
+            confirmations.forEach(this::confirmUpdate);
+        }
+        calls.addAll(captured);
+        return captured;
+    }
+
+    private ClientCall capture(JavaScriptInvocation invocation) {
+        String expression = invocation.getExpression();
+        Matcher matcher = CONNECTOR_FUNCTION.matcher(expression);
+        String function = matcher.find() ? matcher.group(1) : null;
+        List<Object> arguments = new ArrayList<>();
+        int bytes = 0;
+        for (Object parameter : invocation.getParameters()) {
+            if (parameter instanceof Element) {
+                continue;
+            }
+            arguments.add(parameter);
+            bytes += sizeOf(parameter);
+        }
+        bytesSent += bytes;
+        if ("set".equals(function)) {
+            int start = ((Number) arguments.get(0)).intValue();
+            JsonArray rows = (JsonArray) arguments.get(1);
+            for (int i = 0; i < rows.length(); i++) {
+                items.put(start + i, rows.getObject(i));
+            }
+        } else if ("updateData".equals(function)) {
+            // the connector replaces the rows with the same key
+            JsonArray rows = (JsonArray) arguments.get(0);
+            for (int i = 0; i < rows.length(); i++) {
+                JsonObject row = rows.getObject(i);
+                items.replaceAll((index, item) -> item.getString("key")
+                    .equals(row.getString("key")) ? row : item);
+            }
+        } else if ("updateSize".equals(function)) {
+            size = ((Number) arguments.get(0)).intValue();
+            items.keySet().removeIf(index -> index >= size);
+        } else if ("reset".equals(function)) {
+            items.clear();
+        }
+        return new ClientCall(function, expression,
+            Collections.unmodifiableList(arguments), bytes);
+    }
+
+    private static int sizeOf(Object parameter) {
+        if (parameter instanceof JsonValue) {
+            return ((JsonValue) parameter).toJson().length();
+        }
+        return parameter == null ? 4 : String.valueOf(parameter).length();
+    }
+
+    /**
+     * Requests a range of items for a filter, as the connector does when the
+     * overlay is scrolled or the filter is typed, and runs a round trip.
+     *
+     * @param start
+     *            the index of the first item
+     * @param length
+     *            the number of items
+     * @param filter
+     *            the filter text
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> setRequestedRange(int start, int length,
+                                              String filter) {
+        return clientCall("setRequestedRange", start, length, filter);
+    }
+
+    public void confirmUpdate(int id) {
+        withSession(() -> {
+            call("confirmUpdate", id);
+            return null;
+        });
+    }
+
+    public List<ClientCall> resetDataCommunicator() {
+        return clientCall("resetDataCommunicator");
+    }
+
+    public List<ClientCall> selectAll() {
+        return clientCall("selectAll");
+    }
+
+    /**
+     * Tells the server the versions of the rows in the simulated client
+     * cache, as the client does when it keeps its rows over resets, and
+     * runs a round trip.
+     *
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> setCachedRows() {
+        JsonObject rowVersions = Json.createObject();
+        items.values().stream().filter(row -> row.hasKey("version"))
+            .forEach(row -> rowVersions.put(row.getString("key"),
+                row.getString("version")));
+        return clientCall("setCachedRows", rowVersions);
+    }
+
+    /**
+     * Opens or closes the overlay as the user does, and runs a round trip.
+     *
+     * @param opened
+     *            <code>true</code> to open the overlay, <code>false</code> to
+     *            close it
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> setOpened(boolean opened) {
+        return updateProperty("opened", opened);
+    }
+
+    /**
+     * Sets the selected items as the client does when the user toggles an
+     * item, and runs a round trip.
+     *
+     * @param keys
+     *            the keys of all the selected items known to the client
+     * @return the calls captured in the round trip
+     */
+    public List<ClientCall> setSelectedKeys(String... keys) {
+        JsonArray selectedItems = Json.createArray();
+        for (String key : keys) {
+            JsonObject item = Json.createObject();
+            item.put("key", key);
+            selectedItems.set(selectedItems.length(), item);
+        }
+        return updateProperty("selectedItems", selectedItems);
+    }
+
+    private List<ClientCall> updateProperty(String name, Serializable value) {
+        return withSession(() -> {
+            try {
+                comboBox.getElement().getNode()
+                    .getFeature(ElementPropertyMap.class)
+                    .deferredUpdateFromClient(name, value).run();
+            } catch (PropertyChangeDeniedException e) {
+                throw new IllegalStateException(e);
+            }
+            return roundTrip();
+        });
+    }
+
+    /**
+     * Gets the keys of the selected items in the {@code selectedItems}
+     * property.
+     *
+     * @return the selected keys
+     */
+    public List<String> getSelectedKeys() {
+        List<String> keys = new ArrayList<>();
+        Object selectedItems = comboBox.getElement()
+            .getPropertyRaw("selectedItems");
+        if (selectedItems instanceof JsonArray) {
+            JsonArray array = (JsonArray) selectedItems;
+            for (int i = 0; i < array.length(); i++) {
+                keys.add(array.getObject(i).getString("key"));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the key of the item at the index in the simulated client cache.
+     *
+     * @param index
+     *            the index of the item
+     * @return the key, or <code>null</code> if the item has not been sent
+     */
+    public String getKey(int index) {
+        JsonObject item = items.get(index);
+        return item == null ? null : item.getString("key");
+    }
+
+    /**
+     * Gets the items the client has received, by index.
+     *
+     * @return the items in the simulated client cache
+     */
+    public Map<Integer, JsonObject> getItems() {
+        return Collections.unmodifiableMap(items);
+    }
+
+    /**
+     * Gets the item count last sent to the client.
+     *
+     * @return the item count, or -1 if none has been sent
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets all the calls captured since the simulator was created or the
+     * calls were last cleared.
+     *
+     * @return the captured calls
+     */
+    public List<ClientCall> getCalls() {
+        return Collections.unmodifiableList(calls);
+    }
+
+    /**
+     * Gets the approximate number of bytes sent to the client since the
+     * simulator was created or the calls were last cleared.
+     *
+     * @return the number of bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void clearCalls() {
+        calls.clear();
+        bytesSent = 0;
+    }
+
+    private List<ClientCall> clientCall(String name, Object... arguments) {
+        return withSession(() -> {
+            call(name, arguments);
+            return roundTrip();
+        });
+    }
+
+    private void call(String name, Object... arguments) {
+        for (Method method : MultiComboBox.class.getDeclaredMethods()) {
+            if (method.getName().equals(name)
+                && method.getParameterCount() == arguments.length) {
+                try {
+                    method.setAccessible(true);
+                    method.invoke(comboBox, arguments);
+                    return;
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        throw new IllegalArgumentException(
+            "No client callable method " + name);
+    }
+}
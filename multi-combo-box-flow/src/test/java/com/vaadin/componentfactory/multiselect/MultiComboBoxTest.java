@@ -0,0 +1,837 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.vaadin.componentfactory.multiselect.ConnectorSimulator.ClientCall;
+import com.vaadin.flow.data.provider.CallbackDataProvider;
+import com.vaadin.flow.data.provider.DataProvider;
+import com.vaadin.flow.data.provider.DataProviderListener;
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.flow.data.renderer.LitRenderer;
+import com.vaadin.flow.shared.Registration;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class MultiComboBoxTest {
+
+    private static final int ITEM_COUNT = 1000;
+
+    // counts the listeners which have not been removed
+    private static final class CountingDataProvider
+        extends CallbackDataProvider<String, String> {
+        private int listeners;
+
+        private CountingDataProvider() {
+            super(query -> IntStream
+                .range(query.getOffset(), Math.min(ITEM_COUNT,
+                    query.getOffset() + query.getLimit()))
+                .mapToObj(i -> "Item " + i), query -> ITEM_COUNT);
+        }
+
+        @Override
+        public Registration addDataProviderListener(
+            DataProviderListener<String> listener) {
+            listeners++;
+            Registration registration = super.addDataProviderListener(
+                listener);
+            return () -> {
+                listeners--;
+                registration.remove();
+            };
+        }
+    }
+
+    // equal by id, so that a new instance with another name replaces it
+    private static final class Person {
+        private final int id;
+        private final String name;
+
+        private Person(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Person && ((Person) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicInteger counts = new AtomicInteger();
+    private MultiComboBox<String> comboBox;
+    private ConnectorSimulator<String> simulator;
+
+    @Before
+    public void setUp() {
+        comboBox = new MultiComboBox<>();
+        comboBox.setDataProvider((filter, offset, limit) -> {
+            fetches.incrementAndGet();
+            return IntStream.range(offset, Math.min(offset + limit, ITEM_COUNT))
+                .mapToObj(i -> "Item " + i);
+        }, filter -> {
+            counts.incrementAndGet();
+            return ITEM_COUNT;
+        });
+        simulator = new ConnectorSimulator<>(comboBox);
+        simulator.clearCalls();
+        fetches.set(0);
+        counts.set(0);
+    }
+
+    @Test
+    public void roundTripWithoutChanges_sendsNothing() {
+        Assert.assertEquals(Collections.emptyList(), simulator.roundTrip());
+        Assert.assertEquals(0, fetches.get());
+    }
+
+    @Test
+    public void requestedRange_isSentOnce() {
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(pageSize, pageSize, "");
+
+        Assert.assertEquals(ITEM_COUNT, simulator.getSize());
+        Assert.assertEquals("Item " + pageSize, simulator.getItems()
+            .get(pageSize).getString("label"));
+        Assert.assertEquals(2, fetches.get());
+        Assert.assertEquals(1, counts.get());
+
+        Assert.assertEquals(Collections.emptyList(),
+            simulator.setRequestedRange(pageSize, pageSize, ""));
+        Assert.assertEquals(2, fetches.get());
+        Assert.assertEquals(1, counts.get());
+    }
+
+    @Test
+    public void selectedKey_isTheValue() {
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        simulator.setSelectedKeys(simulator.getKey(3));
+
+        Assert.assertEquals(Collections.singleton("Item 3"),
+            comboBox.getValue());
+    }
+
+    @Test
+    public void clientSideFilteringMode_sendsAllItems() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        List<String> items = IntStream.range(0, 300)
+            .mapToObj(i -> "Item " + i).collect(Collectors.toList());
+        comboBox.setItems(items);
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+
+        simulator.run(() -> comboBox.setComponentModeValueChangeMode(
+            MultiComboBox.MultiComboboxMode.LAZY_AND_CLIENT_SIDE_FILTERING));
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        Assert.assertEquals(Integer.MAX_VALUE, comboBox.getPageSize());
+        Assert.assertEquals(items.size(), simulator.getSize());
+        Assert.assertEquals(items.size(), simulator.getItems().size());
+    }
+
+    @Test
+    public void clientSideFilteringMode_beforeItems_sendsAllItems() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setComponentModeValueChangeMode(
+            MultiComboBox.MultiComboboxMode.LAZY_AND_CLIENT_SIDE_FILTERING);
+        comboBox.setItems(IntStream.range(0, 300).mapToObj(i -> "Item " + i)
+            .collect(Collectors.toList()));
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        Assert.assertEquals(300, simulator.getItems().size());
+    }
+
+    @Test
+    public void tooShortFilter_isAnsweredEmpty() {
+        comboBox.setMinimumFilterLength(3);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+
+        List<ClientCall> calls = simulator.setRequestedRange(0, pageSize,
+            "1");
+
+        Assert.assertEquals(
+            Arrays.asList("$connector.updateSize", "$connector.set",
+                "$connector.confirm"),
+            calls.stream().map(ClientCall::toString)
+                .collect(Collectors.toList()));
+        Assert.assertEquals("1", calls.get(2).getArguments().get(1));
+        Assert.assertEquals(0, simulator.getSize());
+        Assert.assertEquals(1, fetches.get());
+
+        // back to the filter the data communicator has sent
+        simulator.setRequestedRange(0, pageSize, "");
+
+        Assert.assertEquals(ITEM_COUNT, simulator.getSize());
+        Assert.assertEquals(pageSize, simulator.getItems().size());
+    }
+
+    @Test
+    public void filterDebounce_withoutPush_appliesEveryFilter() {
+        comboBox.setFilterDebounce(Duration.ofMinutes(1));
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "1");
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "12");
+
+        Assert.assertEquals(2, fetches.get());
+        Assert.assertEquals("$connector.confirm", simulator.getCalls()
+            .get(simulator.getCalls().size() - 1).toString());
+    }
+
+    @Test
+    public void reattach_itemsAreSentToTheNewElement() {
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        simulator.setOpened(false);
+
+        simulator.detach();
+        simulator.attach();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        Assert.assertEquals(ITEM_COUNT, simulator.getSize());
+        Assert.assertEquals(comboBox.getPageSize(),
+            simulator.getItems().size());
+    }
+
+    @Test
+    public void cachingProvider_reopenWithSameFilter_isAnsweredFromTheCache() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setDataProvider((filter, offset, limit) -> {
+            fetches.incrementAndGet();
+            return IntStream.range(offset, Math.min(offset + limit, ITEM_COUNT))
+                .mapToObj(i -> "Item " + i);
+        }, filter -> ITEM_COUNT, 10, Duration.ofMinutes(1));
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(0, pageSize, "1");
+        simulator.setOpened(false);
+        CachingCallbackDataProvider<?> dataProvider = (CachingCallbackDataProvider<?>) comboBox
+            .getDataProvider();
+        long hits = dataProvider.getHitCount();
+        int fetched = fetches.get();
+
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(0, pageSize, "1");
+
+        Assert.assertTrue(dataProvider.getHitCount() > hits);
+        Assert.assertEquals(fetched, fetches.get());
+        Assert.assertEquals("Item 0", simulator.getItems().get(0)
+            .getString("label"));
+    }
+
+    @Test
+    public void cachingProvider_refreshItem_keepsTheCache() {
+        CachingCallbackDataProvider<String> dataProvider;
+        dataProvider = new CachingCallbackDataProvider<>(
+            (filter, offset, limit) -> {
+                fetches.incrementAndGet();
+                return IntStream.range(offset, offset + limit)
+                    .mapToObj(i -> "Item " + i);
+            }, filter -> ITEM_COUNT, 10, Duration.ofMinutes(1));
+        Query<String, String> query = new Query<>(0, 10, null, null, "");
+        dataProvider.fetch(query).count();
+
+        dataProvider.refreshItem("Item 3");
+
+        Assert.assertEquals(10, dataProvider.fetch(query).count());
+        Assert.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void selectRange_selectsTheFilteredRange() {
+        ConnectorSimulator<String> simulator = filteredItems("1");
+
+        simulator.run(() -> simulator.getComboBox().selectRange(2, 0));
+
+        Assert.assertEquals(Arrays.asList("Item 1", "Item 10", "Item 11"),
+            new ArrayList<>(simulator.getComboBox().getValue()));
+    }
+
+    @Test
+    public void selectAllMatching_selectsAtMostTheGivenNumberOfItems() {
+        ConnectorSimulator<String> simulator = filteredItems("12");
+
+        simulator.run(() -> simulator.getComboBox().selectAllMatching(3));
+
+        Assert.assertEquals(Arrays.asList("Item 12", "Item 112", "Item 120"),
+            new ArrayList<>(simulator.getComboBox().getValue()));
+
+        simulator.run(
+            () -> simulator.getComboBox().selectAllMatching(ITEM_COUNT));
+
+        Assert.assertEquals(20, simulator.getComboBox().getValue().size());
+    }
+
+    private static ConnectorSimulator<String> filteredItems(String filter) {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setItems(IntStream.range(0, ITEM_COUNT)
+            .mapToObj(i -> "Item " + i).collect(Collectors.toList()));
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), filter);
+        return simulator;
+    }
+
+    @Test
+    public void displayLimit_sendsTheFirstItemsAndMoreChip() {
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        comboBox.setSelectedItemsDisplayLimit(2);
+
+        simulator.run(() -> comboBox.setValue(new LinkedHashSet<>(
+            Arrays.asList("Item 4", "Item 3", "Item 2", "Item 1"))));
+
+        JsonArray selectedItems = (JsonArray) comboBox.getElement()
+            .getPropertyRaw("selectedItems");
+        Assert.assertEquals(3, selectedItems.length());
+        Assert.assertEquals("Item 4",
+            selectedItems.getObject(0).getString("label"));
+        Assert.assertEquals("Item 3",
+            selectedItems.getObject(1).getString("label"));
+        Assert.assertEquals("+2 more",
+            selectedItems.getObject(2).getString("label"));
+    }
+
+    @Test
+    public void displayLimit_removingAShownItem_keepsTheHiddenItems() {
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        comboBox.setSelectedItemsDisplayLimit(2);
+        simulator.run(() -> comboBox.setValue(new LinkedHashSet<>(
+            Arrays.asList("Item 4", "Item 3", "Item 2", "Item 1"))));
+        List<String> keys = simulator.getSelectedKeys();
+
+        simulator.setSelectedKeys(keys.get(1), keys.get(2));
+
+        Assert.assertEquals(Arrays.asList("Item 3", "Item 2", "Item 1"),
+            new ArrayList<>(comboBox.getValue()));
+        Assert.assertEquals(3, simulator.getSelectedKeys().size());
+
+        // removing the "more" chip keeps the items and shows it again
+        simulator.setSelectedKeys(simulator.getSelectedKeys().get(0),
+            simulator.getSelectedKeys().get(1));
+
+        Assert.assertEquals(3, comboBox.getValue().size());
+        Assert.assertEquals(3, simulator.getSelectedKeys().size());
+    }
+
+    @Test
+    public void submittedSelectionChanges_keepTheInsertionOrder() {
+        simulator.run(() -> comboBox.setValue(
+            new LinkedHashSet<>(Arrays.asList("Item 3", "Item 1"))));
+
+        comboBox.submitSelectionChange(Arrays.asList("Item 7", "Item 0"),
+            Collections.singletonList("Item 3"));
+        comboBox.submitSelectionChange(Collections.singletonList("Item 5"),
+            Collections.emptyList());
+        simulator.roundTrip();
+
+        Assert.assertEquals(
+            Arrays.asList("Item 1", "Item 7", "Item 0", "Item 5"),
+            new ArrayList<>(comboBox.getValue()));
+    }
+
+    @Test
+    public void fetchOnlyProvider_scrollAndFilter_neverCounts() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setDataProvider((filter, offset, limit) -> {
+            fetches.incrementAndGet();
+            return IntStream.range(0, ITEM_COUNT).mapToObj(i -> "Item " + i)
+                .filter(item -> item.contains(filter)).skip(offset)
+                .limit(limit);
+        });
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(pageSize, pageSize, "");
+
+        Assert.assertEquals("Item " + pageSize, simulator.getItems()
+            .get(pageSize).getString("label"));
+        Assert.assertTrue(simulator.getSize() > 2 * pageSize);
+
+        // the 20 items matching are fewer than a page, which fixes the size
+        simulator.setRequestedRange(0, pageSize, "12");
+
+        Assert.assertEquals(20, simulator.getSize());
+        Assert.assertEquals("Item 112", simulator.getItems().get(1)
+            .getString("label"));
+    }
+
+    @Test
+    public void stableKeys_itemsWithoutId_getGeneratedKeys() {
+        comboBox.setStableItemKeys(true);
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        String key = simulator.getKey(3);
+        Assert.assertFalse(key, key.contains("Item"));
+        Assert.assertFalse(simulator.getItems().get(3).hasKey("version"));
+    }
+
+    @Test
+    public void stableKeys_keepTheIdKeyOverAReset() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setDataProvider(new CallbackDataProvider<>(
+            query -> IntStream.range(query.getOffset(),
+                Math.min(ITEM_COUNT, query.getOffset() + query.getLimit()))
+                .mapToObj(i -> "Item " + i),
+            query -> ITEM_COUNT, item -> item.substring(5)));
+        comboBox.setStableItemKeys(true);
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        Assert.assertEquals("id:3", simulator.getKey(3));
+
+        // versions are only sent once the client says it keeps its rows
+        Assert.assertFalse(simulator.getItems().get(3).hasKey("version"));
+        simulator.setCachedRows();
+        simulator.run(() -> comboBox.setPageSize(40));
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        Assert.assertEquals("id:3", simulator.getKey(3));
+        Assert.assertTrue(simulator.getItems().get(3).hasKey("version"));
+    }
+
+    @Test
+    public void sharedFetchCallback_sessionsOpeningTheSameFilter_callTheBackendOnce() {
+        SharedFetchCallback<String> callback = new SharedFetchCallback<>(
+            (filter, offset, limit) -> {
+                fetches.incrementAndGet();
+                return IntStream.range(offset,
+                    Math.min(offset + limit, ITEM_COUNT))
+                    .mapToObj(i -> "Item " + i);
+            }, filter -> {
+                counts.incrementAndGet();
+                return ITEM_COUNT;
+            }, 10, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 3; i++) {
+            MultiComboBox<String> comboBox = new MultiComboBox<>();
+            comboBox.setDataProvider(callback, callback);
+            ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+                comboBox);
+            simulator.setOpened(true);
+            simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+            Assert.assertEquals(ITEM_COUNT, simulator.getSize());
+            Assert.assertEquals("Item 0", simulator.getItems().get(0)
+                .getString("label"));
+        }
+        Assert.assertEquals(1, fetches.get());
+        Assert.assertEquals(1, counts.get());
+    }
+
+    @Test
+    public void parallelFiltering_filtersEachItemOnceInThePool() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setParallelFilteringThreshold(100);
+        AtomicInteger tests = new AtomicInteger();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        comboBox.setItems((item, filterText) -> {
+            tests.incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            return item.contains(filterText);
+        }, IntStream.range(0, ITEM_COUNT).mapToObj(i -> "Item " + i)
+            .collect(Collectors.toList()));
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "1");
+        simulator.setRequestedRange(pageSize, pageSize, "1");
+
+        // the numbers below 1000 without the digit 1: 9 * 9 * 9
+        Assert.assertEquals(ITEM_COUNT - 729, simulator.getSize());
+        Assert.assertEquals("Item 1", simulator.getItems().get(0)
+            .getString("label"));
+        // after 1, 10 to 19 and 21 to 91, the matches are 100 onwards
+        Assert.assertEquals("Item " + (100 + pageSize - 19), simulator
+            .getItems().get(pageSize).getString("label"));
+        // the count and both pages are served from one filtering
+        Assert.assertEquals(ITEM_COUNT, tests.get());
+        Assert.assertTrue(threads.toString(), threads.stream()
+            .allMatch(name -> name.startsWith("multi-combo-box-filter-")));
+    }
+
+    @Test
+    public void keysetProvider_nextPageSeeksFromTheLastKey() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        List<String> calls = new ArrayList<>();
+        comboBox.<Integer> setDataProvider((filter, afterKey, offset, limit) -> {
+            calls.add(afterKey + "@" + offset);
+            int start = afterKey == null ? offset : afterKey + 1;
+            return IntStream.range(start, Math.min(start + limit, ITEM_COUNT))
+                .mapToObj(i -> "Item " + i);
+        }, item -> Integer.parseInt(item.substring("Item ".length())),
+            filter -> ITEM_COUNT);
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(pageSize, pageSize, "");
+        // a jump has no known key and is fetched by offset
+        simulator.setRequestedRange(10 * pageSize, pageSize, "");
+
+        Assert.assertEquals(Arrays.asList("null@0",
+            (pageSize - 1) + "@" + pageSize, "null@" + 10 * pageSize), calls);
+        Assert.assertEquals("Item " + pageSize, simulator.getItems()
+            .get(pageSize).getString("label"));
+        Assert.assertEquals("Item " + 10 * pageSize, simulator.getItems()
+            .get(10 * pageSize).getString("label"));
+    }
+
+    @Test
+    public void pageAndCountCallback_newFilterCostsOneCall() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        List<String> calls = new ArrayList<>();
+        comboBox.setDataProviderWithCount((filter, offset, limit) -> {
+            calls.add(filter + "@" + offset);
+            List<String> matching = IntStream.range(0, ITEM_COUNT)
+                .mapToObj(i -> "Item " + i)
+                .filter(item -> item.contains(filter))
+                .collect(Collectors.toList());
+            return new MultiComboBox.ItemPage<>(matching.subList(
+                Math.min(offset, matching.size()),
+                Math.min(offset + limit, matching.size())), matching.size());
+        });
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(0, pageSize, "1");
+        simulator.setRequestedRange(pageSize, pageSize, "1");
+
+        // the count and the first page come from the same call
+        Assert.assertEquals(Arrays.asList("@0", "1@0", "1@" + pageSize),
+            calls);
+        Assert.assertEquals(ITEM_COUNT - 729, simulator.getSize());
+        Assert.assertEquals("Item 1", simulator.getItems().get(0)
+            .getString("label"));
+    }
+
+    @Test
+    public void selectedFirstProvider_listsTheSelectionBeforeTheBackendItems() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        List<Integer> offsets = new ArrayList<>();
+        comboBox.setDataProviderSelectedFirst(
+            (filter, excludedItems, offset, limit) -> {
+                offsets.add(offset);
+                return IntStream.range(0, ITEM_COUNT)
+                    .mapToObj(i -> "Item " + i)
+                    .filter(item -> !excludedItems.contains(item))
+                    .skip(offset).limit(limit);
+            }, (filter, excludedItems) -> ITEM_COUNT - excludedItems.size());
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.run(() -> comboBox.setValue(new LinkedHashSet<>(
+            Arrays.asList("Item 500", "Item 7"))));
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        simulator.setRequestedRange(pageSize, pageSize, "");
+
+        Assert.assertEquals(ITEM_COUNT, simulator.getSize());
+        Assert.assertEquals(Arrays.asList("Item 500", "Item 7", "Item 0",
+            "Item 1", "Item 2", "Item 3", "Item 4", "Item 5", "Item 6",
+            "Item 8"), IntStream.range(0, 10)
+                .mapToObj(i -> simulator.getItems().get(i).getString("label"))
+                .collect(Collectors.toList()));
+        // the backend offsets leave the selected items out
+        Assert.assertEquals(Arrays.asList(0, pageSize - 2), offsets);
+    }
+
+    @Test
+    public void compilingFilter_compilesOncePerFilterChange() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        MultiComboBox.CompilingItemFilter<String> words = ItemFilters
+            .containsAllWords(String::valueOf, Locale.ROOT);
+        AtomicInteger compiles = new AtomicInteger();
+        List<String> items = IntStream.range(0, ITEM_COUNT)
+            .mapToObj(i -> "Item " + i).collect(Collectors.toList());
+        comboBox.setItems(filterText -> {
+            compiles.incrementAndGet();
+            return words.compile(filterText);
+        }, items);
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "2 ITEM 1");
+        simulator.setRequestedRange(pageSize, pageSize, "2 ITEM 1");
+
+        Assert.assertEquals(1, compiles.get());
+        Assert.assertEquals(items.stream()
+            .filter(item -> item.contains("1") && item.contains("2"))
+            .count(), simulator.getSize());
+        Assert.assertEquals("Item 12", simulator.getItems().get(0)
+            .getString("label"));
+        Assert.assertEquals("Item 21", simulator.getItems().get(1)
+            .getString("label"));
+
+        simulator.setRequestedRange(0, pageSize, "2 ITEM 13");
+        Assert.assertEquals(2, compiles.get());
+        Assert.assertEquals("Item 132", simulator.getItems().get(0)
+            .getString("label"));
+    }
+
+    @Test
+    public void monotonicFilter_extendedFilterTestsOnlyThePreviousMatches() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        AtomicInteger tests = new AtomicInteger();
+        comboBox.setItems(ItemFilters.monotonic((item, filterText) -> {
+            tests.incrementAndGet();
+            return item.contains(filterText);
+        }), IntStream.range(0, ITEM_COUNT).mapToObj(i -> "Item " + i)
+            .collect(Collectors.toList()));
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "1");
+        Assert.assertEquals(ITEM_COUNT, tests.get());
+
+        tests.set(0);
+        simulator.setRequestedRange(0, pageSize, "12");
+
+        // only the items matching "1" are tested
+        Assert.assertEquals(ITEM_COUNT - 729, tests.get());
+        Assert.assertEquals(20, simulator.getSize());
+        Assert.assertEquals("Item 12", simulator.getItems().get(0)
+            .getString("label"));
+        Assert.assertEquals("Item 112", simulator.getItems().get(1)
+            .getString("label"));
+    }
+
+    @Test
+    public void dataChangeBurst_isAppliedOnce() {
+        int pageSize = comboBox.getPageSize();
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, pageSize, "");
+        fetches.set(0);
+        counts.set(0);
+        DataProvider<String, ?> dataProvider = comboBox.getDataProvider();
+
+        List<ClientCall> calls = simulator.run(() -> {
+            for (int i = 0; i < 100; i++) {
+                dataProvider.refreshItem("Item " + i % 10);
+            }
+        });
+
+        // the refreshes of the same item are sent once
+        Assert.assertEquals("[$connector.updateData]", calls.toString());
+        Assert.assertEquals(10,
+            ((JsonArray) calls.get(0).getArguments().get(0)).length());
+        Assert.assertEquals(0, counts.get());
+
+        calls = simulator.run(() -> {
+            for (int i = 0; i < 100; i++) {
+                dataProvider.refreshItem("Item " + i % 10);
+            }
+            dataProvider.refreshAll();
+            dataProvider.refreshAll();
+        });
+
+        // the refresh of everything makes the item refreshes redundant
+        Assert.assertEquals(1, calls.stream()
+            .filter(call -> call.toString().equals("$connector.reset"))
+            .count());
+        Assert.assertFalse(calls.stream().anyMatch(
+            call -> call.toString().equals("$connector.updateData")));
+        Assert.assertEquals(1, counts.get());
+    }
+
+    @Test
+    public void selectionChangeEvent_carriesTheAddedAndRemovedItems() {
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        List<String> events = new ArrayList<>();
+        comboBox.addSelectionChangeListener(event -> events.add(
+            event.isFromClient() + " +" + event.getAddedItems() + " -"
+                + event.getRemovedItems()));
+
+        simulator.setSelectedKeys(simulator.getKey(1), simulator.getKey(2));
+        simulator.setSelectedKeys(simulator.getKey(2), simulator.getKey(3));
+        simulator.run(() -> comboBox.addToSelection(
+            Arrays.asList("Item 3", "Item 4", "Item 4")));
+        simulator.run(() -> comboBox.removeFromSelection(
+            Arrays.asList("Item 2", "Item 5")));
+
+        Assert.assertEquals(Arrays.asList(
+            "true +[Item 1, Item 2] -[]",
+            "true +[Item 3] -[Item 1]",
+            "false +[Item 4] -[]",
+            "false +[] -[Item 2]"), events);
+        Assert.assertEquals(Arrays.asList(simulator.getKey(3),
+            simulator.getKey(4)), simulator.getSelectedKeys());
+    }
+
+    @Test
+    public void updateItems_sendsOnlyTheChangesAndKeepsTheSelection() {
+        MultiComboBox<Person> comboBox = new MultiComboBox<>();
+        List<Person> people = IntStream.range(0, 100)
+            .mapToObj(i -> new Person(i, "Person " + i))
+            .collect(Collectors.toList());
+        comboBox.setItems(people);
+        ConnectorSimulator<Person> simulator = new ConnectorSimulator<>(
+            comboBox);
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        simulator.setSelectedKeys(simulator.getKey(1), simulator.getKey(2));
+
+        List<Person> renamed = new ArrayList<>(people);
+        renamed.set(2, new Person(2, "Renamed"));
+        List<ClientCall> calls = simulator
+            .run(() -> comboBox.updateItems(renamed));
+
+        // only the renamed item is sent
+        Assert.assertEquals("[$connector.updateData]", calls.toString());
+        Assert.assertEquals(1,
+            ((JsonArray) calls.get(0).getArguments().get(0)).length());
+        Assert.assertEquals("Renamed", simulator.getItems().get(2)
+            .getString("label"));
+        Assert.assertEquals(Arrays.asList("Person 1", "Renamed"),
+            comboBox.getValue().stream().map(Person::toString)
+                .collect(Collectors.toList()));
+        JsonArray selectedItems = (JsonArray) comboBox.getElement()
+            .getPropertyRaw("selectedItems");
+        Assert.assertEquals("Renamed",
+            selectedItems.getObject(1).getString("label"));
+
+        List<Person> shorter = new ArrayList<>(renamed);
+        shorter.remove(1);
+        simulator.run(() -> comboBox.updateItems(shorter));
+
+        Assert.assertEquals(99, simulator.getSize());
+        List<String> labels = simulator.getItems().values().stream()
+            .map(item -> item.getString("label"))
+            .collect(Collectors.toList());
+        Assert.assertTrue(labels.contains("Renamed"));
+        Assert.assertFalse(labels.contains("Person 1"));
+        Assert.assertEquals(Collections.singletonList("Renamed"),
+            comboBox.getValue().stream().map(Person::toString)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void litRenderer_sendsItsPropertiesWithoutReset() {
+        simulator.setOpened(true);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+
+        for (String name : Arrays.asList("ITEM 3", "item 3")) {
+            List<ClientCall> calls = simulator.run(() -> comboBox.setRenderer(
+                LitRenderer.<String> of("<b>${item.name}</b>").withProperty(
+                    "name", item -> name.equals("ITEM 3")
+                        ? item.toUpperCase(Locale.ROOT)
+                        : item.toLowerCase(Locale.ROOT))));
+
+            // the renderer is set once for all the items
+            Assert.assertEquals(1, calls.stream().filter(call -> call
+                .getExpression().contains("Vaadin.setLitRenderer")).count());
+            Assert.assertFalse(calls.toString(), calls.stream()
+                .anyMatch(call -> call.toString().equals("$connector.reset")));
+            JsonObject row = simulator.getItems().get(3);
+            Assert.assertEquals("Item 3", row.getString("label"));
+            Assert.assertTrue(row.toJson(), Arrays.stream(row.keys())
+                .anyMatch(key -> key.endsWith("_name")
+                    && row.getString(key).equals(name)));
+        }
+        Assert.assertEquals(0, comboBox.getElement().getChildCount());
+    }
+
+    @Test
+    public void failover_detachAndAttach_doesNotAccumulateListeners() {
+        MultiComboBox<String> comboBox = new MultiComboBox<>();
+        comboBox.setDataProvider(new CountingDataProvider());
+        ConnectorSimulator<String> simulator = new ConnectorSimulator<>(
+            comboBox);
+        simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+        // the listeners of the combo box and its data communicator
+        int listeners = ((CountingDataProvider) comboBox
+            .getDataProvider()).listeners;
+
+        for (int i = 0; i < 3; i++) {
+            simulator = simulator.replicate();
+            simulator.setRequestedRange(0, comboBox.getPageSize(), "");
+            CountingDataProvider dataProvider = (CountingDataProvider) simulator
+                .getComboBox().getDataProvider();
+            Assert.assertEquals(listeners, dataProvider.listeners);
+
+            simulator.detach();
+            // only the listener deserialized with the data provider, it has
+            // no registration to remove
+            Assert.assertEquals(1, dataProvider.listeners);
+            simulator.attach();
+            Assert.assertEquals(listeners, dataProvider.listeners);
+
+            simulator.clearCalls();
+            simulator.run(dataProvider::refreshAll);
+            Assert.assertFalse("the data change reaches the combo box",
+                simulator.getCalls().isEmpty());
+        }
+    }
+}
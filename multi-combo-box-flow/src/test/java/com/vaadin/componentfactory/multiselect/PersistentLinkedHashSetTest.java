@@ -0,0 +1,122 @@
+package com.vaadin.componentfactory.multiselect;
+
+/*
+ * #%L
+ * Multiselect combobox Component
+ * %%
+ * Copyright (C) 2020 Vaadin Ltd
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class PersistentLinkedHashSetTest {
+
+    // few distinct hash codes, so that the collision nodes are used too
+    private static final class Key {
+        private final int id;
+
+        private Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 97;
+        }
+
+        @Override
+        public String toString() {
+            return "Key " + id;
+        }
+    }
+
+    @Test
+    public void randomChanges_matchLinkedHashSet() {
+        Random random = new Random(42);
+        Set<Key> expected = new LinkedHashSet<>();
+        PersistentLinkedHashSet<Key> set = PersistentLinkedHashSet.empty();
+        for (int i = 0; i < 20000; i++) {
+            Key key = new Key(random.nextInt(2000));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                set = set.without(key);
+            } else {
+                expected.add(key);
+                set = set.with(key);
+            }
+            Assert.assertEquals(expected.size(), set.size());
+            Assert.assertEquals(expected.contains(key), set.contains(key));
+        }
+        Assert.assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        Assert.assertEquals(expected, set);
+        Assert.assertEquals(expected.hashCode(), set.hashCode());
+    }
+
+    @Test
+    public void changes_leaveTheOriginalUnchanged() {
+        PersistentLinkedHashSet<String> original = PersistentLinkedHashSet
+            .copyOf(Arrays.asList("c", "a", "b"));
+
+        PersistentLinkedHashSet<String> changed = original.without("a")
+            .with("d").with("a");
+
+        Assert.assertEquals(Arrays.asList("c", "a", "b"),
+            new ArrayList<>(original));
+        Assert.assertEquals(Arrays.asList("c", "b", "d", "a"),
+            new ArrayList<>(changed));
+        Assert.assertSame(changed, changed.with("b"));
+    }
+
+    @Test
+    public void serialization_keepsTheOrder() throws Exception {
+        List<Integer> elements = new ArrayList<>();
+        for (int i = 1000; i > 0; i--) {
+            elements.add(i);
+        }
+        PersistentLinkedHashSet<Integer> set = PersistentLinkedHashSet
+            .copyOf(elements);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(set);
+        }
+        Object copy;
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = in.readObject();
+        }
+
+        Assert.assertTrue(copy instanceof PersistentLinkedHashSet);
+        Assert.assertEquals(elements, new ArrayList<>((Set<?>) copy));
+    }
+}